@@ -79,4 +79,43 @@ public class FormatUtils {
       throw new IllegalArgumentException("Fail to parse " + timeSize + " to milliseconds");
     }
   }
+
+  /**
+   * Appends a JSON string field, escaping the value.
+   *
+   * @param sb the builder to append to
+   * @param name the field name, appended as is
+   * @param value the field value
+   * @return the builder
+   */
+  public static StringBuilder appendJsonField(StringBuilder sb, String name, String value) {
+    sb.append('"').append(name).append("\":\"");
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+          sb.append("\\\"");
+          break;
+        case '\\':
+          sb.append("\\\\");
+          break;
+        case '\n':
+          sb.append("\\n");
+          break;
+        case '\r':
+          sb.append("\\r");
+          break;
+        case '\t':
+          sb.append("\\t");
+          break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    return sb.append('"');
+  }
 }
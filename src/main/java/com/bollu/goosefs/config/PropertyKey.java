@@ -291,6 +291,34 @@ public final class PropertyKey implements Comparable<PropertyKey> {
           .setConsistencyCheckLevel(ConsistencyCheckLevel.IGNORE)
           .setScope(Scope.ALL)
           .build();
+  public static final PropertyKey LEAK_DETECTOR_LOG_INTERVAL =
+      new Builder(Name.LEAK_DETECTOR_LOG_INTERVAL)
+          .setDefaultValue("1min")
+          .setDescription("The first leak of an allocation stack is logged with its records, "
+              + "further leaks of the same stack are logged at most once per this interval "
+              + "with their count.")
+          .setConsistencyCheckLevel(ConsistencyCheckLevel.IGNORE)
+          .setScope(Scope.ALL)
+          .build();
+  public static final PropertyKey LEAK_DETECTOR_SAMPLING_INTERVAL =
+      new Builder(Name.LEAK_DETECTOR_SAMPLING_INTERVAL)
+          .setDefaultValue(128)
+          .setDescription("Below the PARANOID level, the leak detector tracks one in every this "
+              + "many resources. Can be set per resource type with "
+              + "alluxio.leak.detector.<type>.sampling.interval, e.g. "
+              + "alluxio.leak.detector.LockResource.sampling.interval.")
+          .setConsistencyCheckLevel(ConsistencyCheckLevel.IGNORE)
+          .setScope(Scope.ALL)
+          .build();
+  public static final PropertyKey LEAK_DETECTOR_MAX_ACTIVE =
+      new Builder(Name.LEAK_DETECTOR_MAX_ACTIVE)
+          .setDefaultValue(4096)
+          .setDescription("The max number of resources of a type the leak detector tracks at a "
+              + "time, further resources are not tracked until tracked ones are closed. Can be "
+              + "set per resource type with alluxio.leak.detector.<type>.max.active.")
+          .setConsistencyCheckLevel(ConsistencyCheckLevel.IGNORE)
+          .setScope(Scope.ALL)
+          .build();
   public static final PropertyKey USER_HOSTNAME = new Builder(Name.USER_HOSTNAME)
       .setDescription("The hostname to use for an GooseFS client.")
       .setConsistencyCheckLevel(ConsistencyCheckLevel.WARN)
@@ -365,6 +393,14 @@ public final class PropertyKey implements Comparable<PropertyKey> {
 
     public static final String LEAK_DETECTOR_EXIT_ON_LEAK = "alluxio.leak.detector.exit.on.leak";
 
+    public static final String LEAK_DETECTOR_LOG_INTERVAL =
+        "alluxio.leak.detector.log.interval";
+
+    public static final String LEAK_DETECTOR_SAMPLING_INTERVAL =
+        "alluxio.leak.detector.sampling.interval";
+
+    public static final String LEAK_DETECTOR_MAX_ACTIVE = "alluxio.leak.detector.max.active";
+
     private Name() {
     } // prevent instantiation
   }
@@ -376,7 +412,11 @@ public final class PropertyKey implements Comparable<PropertyKey> {
         "goosefs\\.master\\.security\\.impersonation\\.([a-zA-Z_0-9-\\.@]+)\\.groups"),
     MASTER_MOUNT_TABLE_ROOT_OPTION_PROPERTY("goosefs.master.mount.table.root.option.%s",
         "goosefs\\.master\\.mount\\.table\\.root\\.option\\.(?<nested>(\\w+\\.)*+\\w+)",
-        PropertyCreators.NESTED_UFS_PROPERTY_CREATOR);
+        PropertyCreators.NESTED_UFS_PROPERTY_CREATOR),
+    LEAK_DETECTOR_TYPE_SAMPLING_INTERVAL("alluxio.leak.detector.%s.sampling.interval",
+        "alluxio\\.leak\\.detector\\.(\\w+)\\.sampling\\.interval"),
+    LEAK_DETECTOR_TYPE_MAX_ACTIVE("alluxio.leak.detector.%s.max.active",
+        "alluxio\\.leak\\.detector\\.(\\w+)\\.max\\.active");
 
     // puts property creators in a nested class to avoid NPE in enum static initialization
     private static class PropertyCreators {
@@ -1,6 +1,9 @@
 package com.bollu.goosefs.jetty.web;
 
+import com.bollu.goosefs.jetty.web.servlet.LockWatchdogServlet;
+import com.bollu.goosefs.jetty.web.servlet.ResourceLeakServlet;
 import com.bollu.goosefs.jetty.web.servlet.StacksServlet;
+import com.bollu.goosefs.resource.lock.LockWatchdog;
 import com.google.common.base.Preconditions;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
@@ -10,6 +13,7 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 import org.eclipse.jetty.server.handler.DefaultHandler;
 import org.eclipse.jetty.server.handler.HandlerList;
 import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -63,6 +67,7 @@ public class WebServer {
     mServletContextHandler.setContextPath(SEPARATOR);
 
     mServletContextHandler.addServlet(StacksServlet.class, "/stacks");
+    mServletContextHandler.addServlet(ResourceLeakServlet.class, ResourceLeakServlet.SERVLET_PATH);
     HandlerList handlers = new HandlerList();
     //添加handler
     handlers.setHandlers(new Handler[] {mServletContextHandler, new DefaultHandler()});
@@ -70,6 +75,17 @@ public class WebServer {
     mServer.setHandler(handlers);
   }
 
+  /**
+   * Serves the last report of the lock watchdog as JSON under
+   * {@link LockWatchdogServlet#SERVLET_PATH}.
+   *
+   * @param watchdog the lock watchdog
+   */
+  public void addLockWatchdog(LockWatchdog watchdog) {
+    mServletContextHandler.addServlet(new ServletHolder(new LockWatchdogServlet(watchdog)),
+        LockWatchdogServlet.SERVLET_PATH);
+  }
+
   public void addHandler(AbstractHandler handler) {
     HandlerList handlers = new HandlerList();
     handlers.addHandler(handler);
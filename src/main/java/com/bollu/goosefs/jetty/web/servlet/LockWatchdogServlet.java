@@ -0,0 +1,38 @@
+package com.bollu.goosefs.jetty.web.servlet;
+
+import com.bollu.goosefs.resource.lock.LockWatchdog;
+import com.google.common.base.Preconditions;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the last report of a {@link LockWatchdog} as JSON: the long lock holds and the deadlock
+ * cycles. Unlike {@link StacksServlet}, it does not walk the threads of the process.
+ */
+public class LockWatchdogServlet extends HttpServlet {
+  private static final long serialVersionUID = -3604215587452893516L;
+
+  public static final String SERVLET_PATH = "/locks";
+
+  private final transient LockWatchdog mWatchdog;
+
+  /**
+   * @param watchdog the watchdog to report
+   */
+  public LockWatchdogServlet(LockWatchdog watchdog) {
+    mWatchdog = Preconditions.checkNotNull(watchdog, "watchdog");
+  }
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    resp.setContentType("application/json; charset=UTF-8");
+    resp.getOutputStream().write(
+        mWatchdog.getLastReport().toJson().getBytes(StandardCharsets.UTF_8));
+  }
+}
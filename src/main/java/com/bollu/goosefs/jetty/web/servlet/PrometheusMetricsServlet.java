@@ -1,12 +1,30 @@
 package com.bollu.goosefs.jetty.web.servlet;
 
+import com.bollu.goosefs.prometheus.metrics.DoubleCounter;
+import com.bollu.goosefs.prometheus.metrics.HistogramTimer;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import io.prometheus.client.Collector;
 import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.CounterMetricFamily;
 import io.prometheus.client.dropwizard.DropwizardExports;
 import io.prometheus.client.exporter.MetricsServlet;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
 public class PrometheusMetricsServlet {
   private static final String SERVLET_PATH = "/metrics";
 
@@ -14,7 +32,9 @@ public class PrometheusMetricsServlet {
 
   public PrometheusMetricsServlet(MetricRegistry registry) {
     mCollectorRegistry = new CollectorRegistry();
-    mCollectorRegistry.register(new DropwizardExports(registry));
+    mCollectorRegistry.register(new DropwizardExports(new DropwizardExportsRegistry(registry)));
+    mCollectorRegistry.register(new DoubleCounterExports(registry));
+    mCollectorRegistry.register(new HistogramTimerExports(registry));
   }
 
   public ServletContextHandler getHandler() {
@@ -24,4 +44,108 @@ public class PrometheusMetricsServlet {
     return contextHandler;
   }
 
+  /**
+   * View of a registry without the metrics exported by the other collectors: the
+   * {@link DoubleCounter}s, which {@link DropwizardExports} would export as gauges since they are
+   * registered as such, and the {@link HistogramTimer}s. Every accessor goes through the filtered
+   * variants, which the unfiltered ones of {@link MetricRegistry} delegate to.
+   */
+  private static final class DropwizardExportsRegistry extends MetricRegistry {
+    private final MetricRegistry mRegistry;
+
+    private DropwizardExportsRegistry(MetricRegistry registry) {
+      mRegistry = registry;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public SortedMap<String, Gauge> getGauges(MetricFilter filter) {
+      return mRegistry.getGauges(
+          (name, metric) -> !(metric instanceof DoubleCounter) && filter.matches(name, metric));
+    }
+
+    @Override
+    public SortedMap<String, Counter> getCounters(MetricFilter filter) {
+      return mRegistry.getCounters(filter);
+    }
+
+    @Override
+    public SortedMap<String, Histogram> getHistograms(MetricFilter filter) {
+      return mRegistry.getHistograms(filter);
+    }
+
+    @Override
+    public SortedMap<String, Meter> getMeters(MetricFilter filter) {
+      return mRegistry.getMeters(filter);
+    }
+
+    @Override
+    public SortedMap<String, Timer> getTimers(MetricFilter filter) {
+      return mRegistry.getTimers(
+          (name, metric) -> !(metric instanceof HistogramTimer) && filter.matches(name, metric));
+    }
+  }
+
+  /**
+   * Exports the {@link DoubleCounter}s as counters, so {@code rate()} and {@code increase()}
+   * handle their resets.
+   */
+  private static final class DoubleCounterExports extends Collector {
+    private final MetricRegistry mRegistry;
+
+    private DoubleCounterExports(MetricRegistry registry) {
+      mRegistry = registry;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public List<MetricFamilySamples> collect() {
+      List<MetricFamilySamples> families = new ArrayList<>();
+      for (Map.Entry<String, Gauge> entry
+          : mRegistry.getGauges((name, metric) -> metric instanceof DoubleCounter).entrySet()) {
+        families.add(new CounterMetricFamily(sanitizeMetricName(entry.getKey()),
+            "Generated from Dropwizard metric import (metric=" + entry.getKey()
+                + ", type=" + DoubleCounter.class.getName() + ")",
+            ((DoubleCounter) entry.getValue()).getSum()));
+      }
+      return families;
+    }
+  }
+
+  /**
+   * Exports the {@link HistogramTimer}s as summaries in seconds, like {@link DropwizardExports}
+   * exports timers, but with the p50, p90, p99, p999 and max, as quantile 1, of their sliding
+   * window instead of the fixed quantiles of dropwizard snapshots, which lack p90 and max.
+   */
+  private static final class HistogramTimerExports extends Collector {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 1.0};
+    private static final double SECONDS_PER_NANO = 1.0 / TimeUnit.SECONDS.toNanos(1);
+
+    private final MetricRegistry mRegistry;
+
+    private HistogramTimerExports(MetricRegistry registry) {
+      mRegistry = registry;
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+      List<MetricFamilySamples> families = new ArrayList<>();
+      for (Map.Entry<String, Timer> entry
+          : mRegistry.getTimers((name, metric) -> metric instanceof HistogramTimer).entrySet()) {
+        String name = sanitizeMetricName(entry.getKey());
+        Snapshot snapshot = entry.getValue().getSnapshot();
+        List<MetricFamilySamples.Sample> samples = new ArrayList<>();
+        for (double quantile : QUANTILES) {
+          double value = quantile == 1.0 ? snapshot.getMax() : snapshot.getValue(quantile);
+          samples.add(new MetricFamilySamples.Sample(name, Collections.singletonList("quantile"),
+              Collections.singletonList(doubleToGoString(quantile)), value * SECONDS_PER_NANO));
+        }
+        samples.add(new MetricFamilySamples.Sample(name + "_count", Collections.emptyList(),
+            Collections.emptyList(), entry.getValue().getCount()));
+        families.add(new MetricFamilySamples(name, Type.SUMMARY,
+            "Quantiles in seconds of " + entry.getKey() + " over its sliding window", samples));
+      }
+      return families;
+    }
+  }
 }
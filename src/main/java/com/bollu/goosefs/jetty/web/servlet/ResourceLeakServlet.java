@@ -0,0 +1,28 @@
+package com.bollu.goosefs.jetty.web.servlet;
+
+import com.bollu.goosefs.resource.ResourceLeakRegistry;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves the leaks recorded by the {@link ResourceLeakRegistry} of the process as JSON, one entry
+ * per resource type and allocation stack, most frequent first.
+ */
+public class ResourceLeakServlet extends HttpServlet {
+  private static final long serialVersionUID = 4271904433587126352L;
+
+  public static final String SERVLET_PATH = "/leaks";
+
+  @Override
+  protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+      throws ServletException, IOException {
+    resp.setContentType("application/json; charset=UTF-8");
+    resp.getOutputStream().write(
+        ResourceLeakRegistry.instance().toJson().getBytes(StandardCharsets.UTF_8));
+  }
+}
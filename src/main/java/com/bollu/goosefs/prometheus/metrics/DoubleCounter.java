@@ -0,0 +1,54 @@
+package com.bollu.goosefs.prometheus.metrics;
+
+import com.codahale.metrics.Gauge;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * A counter of fractional amounts, e.g. bytes in MB or seconds, backed by a {@link DoubleAdder}
+ * so threads adding to the same counter update their own cell instead of retrying a CAS on a
+ * shared value.
+ *
+ * Obtain it once with {@link MetricsSystem#doubleCounter(String)} and keep the handle, adding to
+ * it does no registry lookup. It is exposed as a {@link Gauge} so the registry sinks export it,
+ * and reported as a {@link MetricType#COUNTER} by {@link MetricsSystem#allMetrics()} and as a
+ * counter by the Prometheus servlet.
+ */
+@ThreadSafe
+public final class DoubleCounter implements Gauge<Double> {
+  private final DoubleAdder mValue = new DoubleAdder();
+
+  /**
+   * Increments the counter by one.
+   */
+  public void inc() {
+    mValue.add(1);
+  }
+
+  /**
+   * @param delta the amount to add
+   */
+  public void add(double delta) {
+    mValue.add(delta);
+  }
+
+  /**
+   * @return the sum of the added amounts
+   */
+  public double getSum() {
+    return mValue.sum();
+  }
+
+  @Override
+  public Double getValue() {
+    return mValue.sum();
+  }
+
+  /**
+   * Resets the counter to zero, amounts added concurrently may or may not be kept.
+   */
+  public void reset() {
+    mValue.reset();
+  }
+}
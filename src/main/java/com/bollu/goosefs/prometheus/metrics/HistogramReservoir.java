@@ -0,0 +1,416 @@
+package com.bollu.goosefs.prometheus.metrics;
+
+import com.codahale.metrics.Reservoir;
+import com.codahale.metrics.Snapshot;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * A reservoir counting every value in log-linear buckets, HdrHistogram style: each power of two
+ * range is split in equal buckets, enough of them for the configured number of significant
+ * digits. Unlike the default exponentially decaying reservoir it keeps no samples, updating it
+ * is a lock-free increment, and its high percentiles are accurate at any call rate.
+ *
+ * Values are kept for a sliding window, split in slices which are cleared in turn as time
+ * passes. The min and max of the window are exact, the other percentiles are within the
+ * configured precision.
+ *
+ * The buckets of a slice are allocated a power of two range at a time, when a value first
+ * falls in it, so the memory used grows with the ranges the values actually span rather than
+ * with the highest trackable value. With the default options each range takes 1KB per slice.
+ */
+@ThreadSafe
+public final class HistogramReservoir implements Reservoir {
+  /** Precision in bits of the values in a power of two range. */
+  private final int mSubBucketBits;
+  /** The number of buckets per power of two range, past the first range. */
+  private final int mSubBucketHalfCount;
+  private final long mHighestTrackableValue;
+  private final int mBucketCount;
+  private final long mSliceNanos;
+  private final Slice[] mSlices;
+
+  /**
+   * @param options the options
+   */
+  public HistogramReservoir(Options options) {
+    long largest = 2 * (long) Math.pow(10, options.getSignificantDigits());
+    mSubBucketBits = 64 - Long.numberOfLeadingZeros(largest - 1);
+    mSubBucketHalfCount = 1 << (mSubBucketBits - 1);
+    mHighestTrackableValue = options.getHighestTrackableValue();
+    mBucketCount = getBucketIndex(mHighestTrackableValue) + 1;
+    mSliceNanos = TimeUnit.MILLISECONDS.toNanos(options.getWindowMs()) / options.getSlices();
+    mSlices = new Slice[options.getSlices()];
+    int chunkCount = (mBucketCount + mSubBucketHalfCount - 1) / mSubBucketHalfCount;
+    for (int i = 0; i < mSlices.length; i++) {
+      mSlices[i] = new Slice(chunkCount);
+    }
+  }
+
+  @Override
+  public int size() {
+    return getSnapshot().size();
+  }
+
+  @Override
+  public void update(long value) {
+    long clamped = Math.min(Math.max(value, 0), mHighestTrackableValue);
+    long epoch = Math.floorDiv(System.nanoTime(), mSliceNanos);
+    Slice slice = mSlices[(int) Math.floorMod(epoch, (long) mSlices.length)];
+    if (slice.mEpoch != epoch) {
+      slice.rotate(epoch);
+    }
+    int index = getBucketIndex(clamped);
+    slice.getChunk(index >>> (mSubBucketBits - 1), mSubBucketHalfCount)
+        .getAndIncrement(index & (mSubBucketHalfCount - 1));
+    slice.mSum.add(clamped);
+    if (clamped > slice.mMax.get()) {
+      slice.mMax.accumulateAndGet(clamped, Math::max);
+    }
+    if (clamped < slice.mMin.get()) {
+      slice.mMin.accumulateAndGet(clamped, Math::min);
+    }
+  }
+
+  @Override
+  public Snapshot getSnapshot() {
+    long epoch = Math.floorDiv(System.nanoTime(), mSliceNanos);
+    long[] counts = new long[mBucketCount];
+    long sum = 0;
+    long min = Long.MAX_VALUE;
+    long max = 0;
+    for (Slice slice : mSlices) {
+      // Slices rotated out of the window are only cleared by the next update landing in them.
+      if (slice.mEpoch <= epoch - mSlices.length) {
+        continue;
+      }
+      for (int c = 0; c < slice.mChunks.length(); c++) {
+        AtomicLongArray chunk = slice.mChunks.get(c);
+        if (chunk == null) {
+          continue;
+        }
+        int offset = c * mSubBucketHalfCount;
+        for (int i = 0; i < chunk.length() && offset + i < mBucketCount; i++) {
+          counts[offset + i] += chunk.get(i);
+        }
+      }
+      sum += slice.mSum.sum();
+      min = Math.min(min, slice.mMin.get());
+      max = Math.max(max, slice.mMax.get());
+    }
+    return new HistogramSnapshot(counts, sum, min, max);
+  }
+
+  /**
+   * @param value a value between 0 and the highest trackable value
+   * @return the index of its bucket
+   */
+  private int getBucketIndex(long value) {
+    int shift = 64 - Long.numberOfLeadingZeros(value) - mSubBucketBits;
+    if (shift <= 0) {
+      return (int) value;
+    }
+    return shift * mSubBucketHalfCount + (int) (value >>> shift);
+  }
+
+  /**
+   * @param index the index of a bucket
+   * @return the lowest value of the bucket
+   */
+  private long getLowestValue(int index) {
+    int shift = index / mSubBucketHalfCount - 1;
+    if (shift <= 0) {
+      return index;
+    }
+    return (long) (index - shift * mSubBucketHalfCount) << shift;
+  }
+
+  /**
+   * @param index the index of a bucket
+   * @return the middle value of the bucket
+   */
+  private long getMedianValue(int index) {
+    int shift = index / mSubBucketHalfCount - 1;
+    if (shift <= 0) {
+      return index;
+    }
+    return getLowestValue(index) + (1L << (shift - 1));
+  }
+
+  /**
+   * The values recorded during one slice of the window.
+   */
+  private static final class Slice {
+    /** Bucket counts, in chunks of one power of two range allocated on first use. */
+    private final AtomicReferenceArray<AtomicLongArray> mChunks;
+    private final LongAdder mSum = new LongAdder();
+    private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong mMax = new AtomicLong();
+    /** The slice of time the values were recorded in. */
+    private volatile long mEpoch = Long.MIN_VALUE;
+
+    private Slice(int chunkCount) {
+      mChunks = new AtomicReferenceArray<>(chunkCount);
+    }
+
+    /**
+     * @param index the index of the chunk
+     * @param size the number of buckets per chunk
+     * @return the chunk, allocated if it is not yet
+     */
+    private AtomicLongArray getChunk(int index, int size) {
+      AtomicLongArray chunk = mChunks.get(index);
+      if (chunk == null) {
+        chunk = new AtomicLongArray(size);
+        if (!mChunks.compareAndSet(index, null, chunk)) {
+          chunk = mChunks.get(index);
+        }
+      }
+      return chunk;
+    }
+
+    /**
+     * Clears the values of an older slice of time. Updates racing with the rotation may be
+     * counted in the new slice.
+     */
+    private synchronized void rotate(long epoch) {
+      if (mEpoch == epoch) {
+        return;
+      }
+      for (int c = 0; c < mChunks.length(); c++) {
+        AtomicLongArray chunk = mChunks.get(c);
+        if (chunk == null) {
+          continue;
+        }
+        for (int i = 0; i < chunk.length(); i++) {
+          chunk.set(i, 0);
+        }
+      }
+      mSum.reset();
+      mMin.set(Long.MAX_VALUE);
+      mMax.set(0);
+      mEpoch = epoch;
+    }
+  }
+
+  /**
+   * A snapshot of the bucket counts of the window. Percentiles are the middle value of their
+   * bucket, bounded by the exact min and max.
+   */
+  private final class HistogramSnapshot extends Snapshot {
+    private final long[] mCounts;
+    private final long mTotal;
+    private final long mSum;
+    private final long mMin;
+    private final long mMax;
+
+    private HistogramSnapshot(long[] counts, long sum, long min, long max) {
+      mCounts = counts;
+      mTotal = Arrays.stream(counts).sum();
+      mSum = sum;
+      mMin = mTotal == 0 ? 0 : min;
+      mMax = max;
+    }
+
+    @Override
+    public double getValue(double quantile) {
+      Preconditions.checkArgument(quantile >= 0.0 && quantile <= 1.0,
+          "%s is not in [0..1]", quantile);
+      if (mTotal == 0) {
+        return 0.0;
+      }
+      long rank = Math.max((long) Math.ceil(quantile * mTotal), 1);
+      long seen = 0;
+      for (int i = 0; i < mCounts.length; i++) {
+        seen += mCounts[i];
+        if (seen >= rank) {
+          return Math.min(Math.max(getMedianValue(i), mMin), mMax);
+        }
+      }
+      return mMax;
+    }
+
+    /**
+     * @return the middle value of each non empty bucket, in ascending order
+     */
+    @Override
+    public long[] getValues() {
+      return Arrays.stream(getNonEmptyBuckets())
+          .mapToLong(i -> Math.min(Math.max(getMedianValue(i), mMin), mMax)).toArray();
+    }
+
+    @Override
+    public int size() {
+      return (int) Math.min(mTotal, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public long getMax() {
+      return mMax;
+    }
+
+    @Override
+    public double getMean() {
+      return mTotal == 0 ? 0.0 : (double) mSum / mTotal;
+    }
+
+    @Override
+    public long getMin() {
+      return mMin;
+    }
+
+    @Override
+    public double getStdDev() {
+      if (mTotal <= 1) {
+        return 0.0;
+      }
+      double mean = getMean();
+      double variance = 0;
+      for (int i : getNonEmptyBuckets()) {
+        double diff = getMedianValue(i) - mean;
+        variance += mCounts[i] * diff * diff;
+      }
+      return Math.sqrt(variance / (mTotal - 1));
+    }
+
+    /**
+     * Writes the middle value and the count of each non empty bucket, one bucket per line.
+     */
+    @Override
+    public void dump(OutputStream output) {
+      try (PrintWriter out =
+               new PrintWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8))) {
+        for (int i : getNonEmptyBuckets()) {
+          out.printf("%d %d%n", getMedianValue(i), mCounts[i]);
+        }
+      }
+    }
+
+    private int[] getNonEmptyBuckets() {
+      return IntStream.range(0, mCounts.length)
+          .filter(i -> mCounts[i] > 0).toArray();
+    }
+  }
+
+  /**
+   * Options to initialize a histogram reservoir.
+   */
+  public static final class Options {
+    /**
+     * The number of significant decimal digits kept of each value.
+     */
+    private int mSignificantDigits = 2;
+
+    /**
+     * Larger values are counted as this value.
+     */
+    private long mHighestTrackableValue = TimeUnit.HOURS.toNanos(1);
+
+    /**
+     * The length of the sliding window.
+     */
+    private long mWindowMs = 60_000;
+
+    /**
+     * The number of slices the window is split in.
+     */
+    private int mSlices = 4;
+
+    /**
+     * @return the number of significant decimal digits kept of each value
+     */
+    public int getSignificantDigits() {
+      return mSignificantDigits;
+    }
+
+    /**
+     * Each extra digit multiplies the memory used by about 8.
+     *
+     * @param significantDigits the number of significant decimal digits kept, 1 to 3
+     * @return the updated object
+     */
+    public Options setSignificantDigits(int significantDigits) {
+      Preconditions.checkArgument(significantDigits >= 1 && significantDigits <= 3,
+          "significantDigits must be between 1 and 3: %s", significantDigits);
+      mSignificantDigits = significantDigits;
+      return this;
+    }
+
+    /**
+     * @return the value larger values are counted as
+     */
+    public long getHighestTrackableValue() {
+      return mHighestTrackableValue;
+    }
+
+    /**
+     * @param highestTrackableValue the value larger values are counted as, in nanoseconds for
+     *                              timers
+     * @return the updated object
+     */
+    public Options setHighestTrackableValue(long highestTrackableValue) {
+      Preconditions.checkArgument(highestTrackableValue > 0);
+      mHighestTrackableValue = highestTrackableValue;
+      return this;
+    }
+
+    /**
+     * @return the length in milliseconds of the sliding window
+     */
+    public long getWindowMs() {
+      return mWindowMs;
+    }
+
+    /**
+     * @param windowMs the length in milliseconds of the sliding window
+     * @return the updated object
+     */
+    public Options setWindowMs(long windowMs) {
+      Preconditions.checkArgument(windowMs > 0);
+      mWindowMs = windowMs;
+      return this;
+    }
+
+    /**
+     * @return the number of slices the window is split in
+     */
+    public int getSlices() {
+      return mSlices;
+    }
+
+    /**
+     * Values leave the window one slice at a time, more slices make it slide more smoothly
+     * but take more memory.
+     *
+     * @param slices the number of slices the window is split in
+     * @return the updated object
+     */
+    public Options setSlices(int slices) {
+      Preconditions.checkArgument(slices > 0);
+      mSlices = slices;
+      return this;
+    }
+
+    private Options() {
+    }
+
+    /**
+     * @return the default option
+     */
+    public static Options defaultOptions() {
+      return new Options();
+    }
+  }
+}
@@ -4,11 +4,11 @@ import com.bollu.goosefs.prometheus.metrics.util.CommonUtils;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
-import com.google.common.util.concurrent.AtomicDouble;
 
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
 import java.util.function.Supplier;
 
 public class Metric {
@@ -35,7 +35,11 @@ public class Metric {
   private final Supplier<String> mFullMetricNameSupplier =
       CommonUtils.memoize(this::constructFullMetricName);
 
-  private AtomicDouble mValue;
+  /**
+   * Striped so threads adding to the same metric do not contend on a CAS loop. Replaced rather
+   * than reset by {@link #setValue(double)}, so readers never see a partially set value.
+   */
+  private volatile DoubleAdder mValue = new DoubleAdder();
 
   /**
    * Constructs a {@link Metric} instance.
@@ -53,7 +57,7 @@ public class Metric {
     mSource = source;
     mMetricType = metricType;
     mName = name;
-    mValue = new AtomicDouble(value);
+    mValue.add(value);
     mTags = new LinkedHashMap<>();
   }
 
@@ -63,15 +67,23 @@ public class Metric {
    * @param delta value to add
    */
   public void addValue(double delta) {
-    mValue.addAndGet(delta);
+    mValue.add(delta);
   }
 
+  /**
+   * Sets the metric value, readers see either the old or the new value. Deltas added
+   * concurrently may or may not be kept.
+   *
+   * @param value the value
+   */
   public void setValue(double value) {
-    mValue.set(value);
+    DoubleAdder adder = new DoubleAdder();
+    adder.add(value);
+    mValue = adder;
   }
 
   public double getValue() {
-    return mValue.get();
+    return mValue.sum();
   }
 
   public MetricsSystem.InstanceType getInstanceType() {
@@ -108,12 +120,12 @@ public class Metric {
     }
     Metric metric = (Metric) other;
     return Objects.equal(getFullMetricName(), metric.getFullMetricName())
-        && Objects.equal(mValue.get(), metric.mValue.get());
+        && Objects.equal(mValue.sum(), metric.mValue.sum());
   }
 
   @Override
   public int hashCode() {
-    return Objects.hashCode(getFullMetricName(), mValue.get());
+    return Objects.hashCode(getFullMetricName(), mValue.sum());
   }
 
   public String getFullMetricName() {
@@ -161,15 +173,11 @@ public class Metric {
       return null;
     }
 
-    String[] pieces = fullName.split("\\.");
-    if (pieces.length >= 1) {
-      try {
-        return MetricsSystem.InstanceType.fromString(pieces[0]);
-      } catch (IllegalArgumentException e) {
-      }
+    try {
+      return MetricsSystem.InstanceType.fromString(MetricName.getInstancePart(fullName));
+    } catch (IllegalArgumentException e) {
+      return null;
     }
-
-    return null;
   }
 
   /**
@@ -179,37 +187,25 @@ public class Metric {
    * @return the base name
    */
   public static String getBaseName(String fullName) {
-    String[] pieces = fullName.split("\\.");
-    if (pieces.length < 2) {
-      return fullName;
-    } else {
-      return pieces[0] + "." + pieces[1];
-    }
+    String baseName = MetricName.getBaseNamePart(fullName);
+    return baseName == null ? fullName : baseName;
   }
 
   public static Metric from(String fullName, double value, MetricType metricType) {
-    String[] pieces = fullName.split("\\.");
-    Preconditions.checkArgument(pieces.length > 1, "Incorrect metrics name: %s.", fullName);
-    int len = pieces.length;
-    String source = null;
-    int tagEndIndex = len;
-    // Master or cluster metrics don't have source included.
-    if (!pieces[0].equals(MetricsSystem.InstanceType.MASTER.toString())
-        && !pieces[0].equals(MetricsSystem.InstanceType.CLUSTER.toString())) {
-      source = pieces[len - 1];
-      tagEndIndex = len - 1;
-    }
-    MetricsSystem.InstanceType instance = MetricsSystem.InstanceType.fromString(pieces[0]);
-    Metric metric = new Metric(instance, source, metricType, pieces[1], value);
-    // parse tags
-    for (int i = 2; i < tagEndIndex; i++) {
-      String tagStr = pieces[i];
-      if (!tagStr.contains(TAG_SEPARATOR)) {
-        // Unknown tag
-        continue;
-      }
-      int tagSeparatorIdx = tagStr.indexOf(TAG_SEPARATOR);
-      metric.addTag(tagStr.substring(0, tagSeparatorIdx), tagStr.substring(tagSeparatorIdx + 1));
+    return from(MetricName.parse(fullName), value, metricType);
+  }
+
+  /**
+   * @param name the parsed metric name
+   * @param value the value
+   * @param metricType the type of the metric
+   * @return the metric
+   */
+  public static Metric from(MetricName name, double value, MetricType metricType) {
+    Metric metric = new Metric(name.getInstanceType(), name.getSource(), metricType,
+        name.getName(), value);
+    for (Map.Entry<String, String> tag : name.getTags().entrySet()) {
+      metric.addTag(tag.getKey(), tag.getValue());
     }
     return metric;
   }
@@ -222,7 +218,7 @@ public class Metric {
         .add("metricType", mMetricType)
         .add("name", mName)
         .add("tags", mTags)
-        .add("value", mValue.get())
+        .add("value", mValue.sum())
         .toString();
   }
 
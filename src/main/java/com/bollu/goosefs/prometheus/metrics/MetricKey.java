@@ -216,6 +216,24 @@ public class MetricKey implements Comparable<MetricKey> {
   public static final class Name {
     public static final String MASTER_DIRECTORIES_CREATED = "Master.DirectoriesCreated";
     public static final String Master_LostBlockCount = "Master.LostBlockCount";
+    public static final String LOCK_ACQUIRE_WAIT_TIME = "Master.LockAcquireWaitTime";
+    public static final String LOCK_HOLD_TIME = "Master.LockHoldTime";
+    public static final String LOCK_TRY_LOCK_SPINS = "Master.LockTryLockSpins";
+    public static final String LOCK_POOL_SIZE = "Master.LockPoolSize";
+    public static final String LOCK_POOL_EVICTIONS = "Master.LockPoolEvictions";
+    public static final String LOCK_POOL_EVICTION_TIME = "Master.LockPoolEvictionTime";
+    public static final String LOCK_LONG_HOLDS = "Master.LockLongHolds";
+    public static final String LOCK_DEADLOCKS = "Master.LockDeadlocks";
+    public static final String POOL_ACQUIRE_WAIT_TIME = "Client.PoolAcquireWaitTime";
+    public static final String POOL_ACQUIRE_TIMEOUTS = "Client.PoolAcquireTimeouts";
+    public static final String POOL_ACQUIRE_REJECTIONS = "Client.PoolAcquireRejections";
+    public static final String POOL_RESOURCES_CREATED = "Client.PoolResourcesCreated";
+    public static final String POOL_RESOURCES_DESTROYED = "Client.PoolResourcesDestroyed";
+    public static final String POOL_UNHEALTHY_RESOURCES = "Client.PoolUnhealthyResources";
+    public static final String POOL_IDLE_RESOURCES = "Client.PoolIdleResources";
+    public static final String POOL_ACTIVE_RESOURCES = "Client.PoolActiveResources";
+    public static final String POOL_WAITERS = "Client.PoolWaiters";
+    public static final String RESOURCE_LEAKS = "Master.ResourceLeaks";
 
     private Name() {}
   }
@@ -234,4 +252,115 @@ public class MetricKey implements Comparable<MetricKey> {
           .setMetricType(MetricType.GAUGE)
           .build();
 
+  public static final MetricKey LOCK_ACQUIRE_WAIT_TIME =
+      new Builder(Name.LOCK_ACQUIRE_WAIT_TIME)
+          .setDescription("Time spent waiting to acquire a lock, sampled")
+          .setMetricType(MetricType.TIMER)
+          .build();
+
+  public static final MetricKey LOCK_HOLD_TIME =
+      new Builder(Name.LOCK_HOLD_TIME)
+          .setDescription("Time a lock is held from acquisition to release, sampled")
+          .setMetricType(MetricType.TIMER)
+          .build();
+
+  public static final MetricKey LOCK_TRY_LOCK_SPINS =
+      new Builder(Name.LOCK_TRY_LOCK_SPINS)
+          .setDescription("Number of times a tryLock acquisition parked before getting the lock, "
+              + "sampled")
+          .setMetricType(MetricType.COUNTER)
+          .build();
+
+  public static final MetricKey LOCK_POOL_SIZE =
+      new Builder(Name.LOCK_POOL_SIZE)
+          .setDescription("Number of locks held in a lock pool")
+          .setMetricType(MetricType.GAUGE)
+          .build();
+
+  public static final MetricKey LOCK_POOL_EVICTIONS =
+      new Builder(Name.LOCK_POOL_EVICTIONS)
+          .setDescription("Number of locks evicted from a lock pool")
+          .setMetricType(MetricType.COUNTER)
+          .build();
+
+  public static final MetricKey LOCK_POOL_EVICTION_TIME =
+      new Builder(Name.LOCK_POOL_EVICTION_TIME)
+          .setDescription("Duration of the eviction passes of a lock pool")
+          .setMetricType(MetricType.TIMER)
+          .build();
+
+  public static final MetricKey LOCK_LONG_HOLDS =
+      new Builder(Name.LOCK_LONG_HOLDS)
+          .setDescription("Number of locks held longer than the watchdog threshold at the last "
+              + "watchdog check")
+          .setMetricType(MetricType.GAUGE)
+          .build();
+
+  public static final MetricKey LOCK_DEADLOCKS =
+      new Builder(Name.LOCK_DEADLOCKS)
+          .setDescription("Number of lock deadlock cycles detected by the watchdog")
+          .setMetricType(MetricType.COUNTER)
+          .build();
+
+  public static final MetricKey POOL_ACQUIRE_WAIT_TIME =
+      new Builder(Name.POOL_ACQUIRE_WAIT_TIME)
+          .setDescription("Time spent in acquiring a resource from a resource pool")
+          .setMetricType(MetricType.TIMER)
+          .build();
+
+  public static final MetricKey POOL_ACQUIRE_TIMEOUTS =
+      new Builder(Name.POOL_ACQUIRE_TIMEOUTS)
+          .setDescription("Number of acquisitions from a resource pool which timed out")
+          .setMetricType(MetricType.COUNTER)
+          .build();
+
+  public static final MetricKey POOL_ACQUIRE_REJECTIONS =
+      new Builder(Name.POOL_ACQUIRE_REJECTIONS)
+          .setDescription("Number of acquisitions from a resource pool rejected because too many "
+              + "requests were waiting")
+          .setMetricType(MetricType.COUNTER)
+          .build();
+
+  public static final MetricKey POOL_RESOURCES_CREATED =
+      new Builder(Name.POOL_RESOURCES_CREATED)
+          .setDescription("Number of resources created by a resource pool")
+          .setMetricType(MetricType.COUNTER)
+          .build();
+
+  public static final MetricKey POOL_RESOURCES_DESTROYED =
+      new Builder(Name.POOL_RESOURCES_DESTROYED)
+          .setDescription("Number of resources closed by a resource pool, unhealthy ones included")
+          .setMetricType(MetricType.COUNTER)
+          .build();
+
+  public static final MetricKey POOL_UNHEALTHY_RESOURCES =
+      new Builder(Name.POOL_UNHEALTHY_RESOURCES)
+          .setDescription("Number of resources a resource pool closed because they were unhealthy")
+          .setMetricType(MetricType.COUNTER)
+          .build();
+
+  public static final MetricKey POOL_IDLE_RESOURCES =
+      new Builder(Name.POOL_IDLE_RESOURCES)
+          .setDescription("Number of idle resources in a resource pool")
+          .setMetricType(MetricType.GAUGE)
+          .build();
+
+  public static final MetricKey POOL_ACTIVE_RESOURCES =
+      new Builder(Name.POOL_ACTIVE_RESOURCES)
+          .setDescription("Number of resources of a resource pool in use")
+          .setMetricType(MetricType.GAUGE)
+          .build();
+
+  public static final MetricKey POOL_WAITERS =
+      new Builder(Name.POOL_WAITERS)
+          .setDescription("Number of requests waiting for a resource of a resource pool")
+          .setMetricType(MetricType.GAUGE)
+          .build();
+
+  public static final MetricKey RESOURCE_LEAKS =
+      new Builder(Name.RESOURCE_LEAKS)
+          .setDescription("Number of resources garbage-collected without being closed, tagged "
+              + "with the resource type")
+          .setMetricType(MetricType.COUNTER)
+          .build();
 }
@@ -0,0 +1,176 @@
+package com.bollu.goosefs.prometheus.metrics;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The parts of a full metric name of pattern instance.name[.tagName:tagValue]*[.source], parsed
+ * once by scanning for the separators rather than splitting with a regex.
+ */
+@ThreadSafe
+public final class MetricName {
+  private final MetricsSystem.InstanceType mInstanceType;
+  private final String mName;
+  private final Map<String, String> mTags;
+  @Nullable
+  private final String mSource;
+  private final String mFullName;
+
+  private MetricName(String fullName, MetricsSystem.InstanceType instanceType, String name,
+      Map<String, String> tags, @Nullable String source) {
+    mFullName = fullName;
+    mInstanceType = instanceType;
+    mName = name;
+    mTags = Collections.unmodifiableMap(tags);
+    mSource = source;
+  }
+
+  /**
+   * Parses a full metric name. Master and cluster metric names have no source, the last part of
+   * the other names is their source. Parts of the tag section without a tag separator are
+   * ignored.
+   *
+   * @param fullName the full metric name
+   * @return the parsed name
+   * @throws IllegalArgumentException if the name has no metric name or an unknown instance type
+   */
+  public static MetricName parse(String fullName) {
+    List<String> pieces = split(fullName);
+    Preconditions.checkArgument(pieces.size() > 1, "Incorrect metrics name: %s.", fullName);
+    int len = pieces.size();
+    String source = null;
+    int tagEndIndex = len;
+    // Master or cluster metrics don't have source included.
+    String instance = pieces.get(0);
+    if (!instance.equals(MetricsSystem.InstanceType.MASTER.toString())
+        && !instance.equals(MetricsSystem.InstanceType.CLUSTER.toString())) {
+      source = pieces.get(len - 1);
+      tagEndIndex = len - 1;
+    }
+    Map<String, String> tags = new LinkedHashMap<>();
+    for (int i = 2; i < tagEndIndex; i++) {
+      String tagStr = pieces.get(i);
+      int tagSeparatorIdx = tagStr.indexOf(Metric.TAG_SEPARATOR);
+      if (tagSeparatorIdx < 0) {
+        // Unknown tag
+        continue;
+      }
+      tags.put(tagStr.substring(0, tagSeparatorIdx), tagStr.substring(tagSeparatorIdx + 1));
+    }
+    return new MetricName(fullName, MetricsSystem.InstanceType.fromString(instance),
+        pieces.get(1), tags, source);
+  }
+
+  /**
+   * @param fullName the full metric name
+   * @return the part before the first separator, the name if it has no separator
+   */
+  static String getInstancePart(String fullName) {
+    int index = fullName.indexOf('.');
+    return index < 0 ? fullName : fullName.substring(0, index);
+  }
+
+  /**
+   * @param fullName the full metric name
+   * @return the instance.name part, null if the name has nothing after it
+   */
+  @Nullable
+  static String getBaseNamePart(String fullName) {
+    int first = fullName.indexOf('.');
+    int second = first < 0 ? -1 : fullName.indexOf('.', first + 1);
+    return second < 0 ? null : fullName.substring(0, second);
+  }
+
+  private static List<String> split(String fullName) {
+    List<String> pieces = new ArrayList<>();
+    int start = 0;
+    int index;
+    while ((index = fullName.indexOf('.', start)) >= 0) {
+      pieces.add(fullName.substring(start, index));
+      start = index + 1;
+    }
+    pieces.add(fullName.substring(start));
+    // Like String#split, drop the trailing empty parts.
+    while (!pieces.isEmpty() && pieces.get(pieces.size() - 1).isEmpty()) {
+      pieces.remove(pieces.size() - 1);
+    }
+    return pieces;
+  }
+
+  /**
+   * @return the instance type
+   */
+  public MetricsSystem.InstanceType getInstanceType() {
+    return mInstanceType;
+  }
+
+  /**
+   * @return the metric name without the instance type, tags and source
+   */
+  public String getName() {
+    return mName;
+  }
+
+  /**
+   * @return the instance.name part of the full name
+   */
+  public String getBaseName() {
+    return mInstanceType + "." + mName;
+  }
+
+  /**
+   * @return the tag names and values, in the order of the full name
+   */
+  public Map<String, String> getTags() {
+    return mTags;
+  }
+
+  /**
+   * @return the source, null for master and cluster metrics
+   */
+  @Nullable
+  public String getSource() {
+    return mSource;
+  }
+
+  /**
+   * @return the full metric name
+   */
+  public String getFullName() {
+    return mFullName;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof MetricName)) {
+      return false;
+    }
+    return mFullName.equals(((MetricName) o).mFullName);
+  }
+
+  @Override
+  public int hashCode() {
+    return mFullName.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("instanceType", mInstanceType)
+        .add("name", mName)
+        .add("tags", mTags)
+        .add("source", mSource)
+        .toString();
+  }
+}
@@ -1,5 +1,9 @@
 package com.bollu.goosefs.prometheus.metrics;
 
+import com.codahale.metrics.Snapshot;
+
+import javax.annotation.Nullable;
+
 public class MetricValue {
 
   private Double doubleValue;
@@ -7,10 +11,24 @@ public class MetricValue {
 
   private MetricType metricType;
 
-  private MetricValue(Double doubleValue, String stringValue, MetricType metricType) {
-    this.doubleValue = doubleValue;
-    this.stringValue = stringValue;
-    this.metricType = metricType;
+  /**
+   * The percentiles and max of timers, in nanoseconds, null for other metrics.
+   */
+  private Double p50;
+  private Double p90;
+  private Double p99;
+  private Double p999;
+  private Double max;
+
+  private MetricValue(Builder builder) {
+    this.doubleValue = builder.doubleValue;
+    this.stringValue = builder.stringValue;
+    this.metricType = builder.metricType;
+    this.p50 = builder.p50;
+    this.p90 = builder.p90;
+    this.p99 = builder.p99;
+    this.p999 = builder.p999;
+    this.max = builder.max;
   }
 
   public Double getDoubleValue() {
@@ -25,6 +43,31 @@ public class MetricValue {
     return metricType;
   }
 
+  @Nullable
+  public Double getP50() {
+    return p50;
+  }
+
+  @Nullable
+  public Double getP90() {
+    return p90;
+  }
+
+  @Nullable
+  public Double getP99() {
+    return p99;
+  }
+
+  @Nullable
+  public Double getP999() {
+    return p999;
+  }
+
+  @Nullable
+  public Double getMax() {
+    return max;
+  }
+
   public static Builder newBuilder() {
     return new Builder();
   }
@@ -34,6 +77,12 @@ public class MetricValue {
     private String stringValue;
 
     private MetricType metricType;
+    private Double p50;
+    private Double p90;
+    private Double p99;
+    private Double p999;
+    private Double max;
+
     public Builder setDoubleValue(Double doubleValue) {
       this.doubleValue = doubleValue;
       return this;
@@ -49,8 +98,23 @@ public class MetricValue {
       return this;
     }
 
+    /**
+     * Sets the p50, p90, p99, p999 and max of a timer.
+     *
+     * @param snapshot the snapshot of the timer
+     * @return the updated builder
+     */
+    public Builder setPercentiles(Snapshot snapshot) {
+      this.p50 = snapshot.getMedian();
+      this.p90 = snapshot.getValue(0.9);
+      this.p99 = snapshot.get99thPercentile();
+      this.p999 = snapshot.get999thPercentile();
+      this.max = (double) snapshot.getMax();
+      return this;
+    }
+
     public MetricValue build() {
-      return new MetricValue(doubleValue, stringValue, metricType);
+      return new MetricValue(this);
     }
   }
 }
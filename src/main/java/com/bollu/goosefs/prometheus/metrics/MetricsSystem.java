@@ -16,8 +16,6 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 @ThreadSafe
 public class MetricsSystem {
@@ -29,8 +27,14 @@ public class MetricsSystem {
   private static final ConcurrentHashMap<String, String> CACHED_ESCAPED_PATH = new ConcurrentHashMap<>();
   private static final Map<String, Long> LAST_REPORTED_METRICS = new HashMap<>();
   private static final Map<String, MetricType> SHOULD_REPORT_METRICS = new ConcurrentHashMap<>();
-  // A pattern to get the <instance_type>.<metric_name> from the full metric name
-  private static final Pattern METRIC_NAME_PATTERN = Pattern.compile("^(.*?[.].*?)[.].*");
+  /**
+   * The tagged counters and meters, resolved once per name and tags so later lookups build no
+   * string. Cleared when the registry metrics are replaced or removed.
+   */
+  private static final ConcurrentHashMap<TaggedName, Tagged<Counter>> TAGGED_COUNTERS =
+      new ConcurrentHashMap<>();
+  private static final ConcurrentHashMap<TaggedName, Tagged<Meter>> TAGGED_METERS =
+      new ConcurrentHashMap<>();
   private static boolean sReported = false;
 
   private static Supplier<String> sSourceNameSupplier = () -> constructSourceName();
@@ -106,6 +110,10 @@ public class MetricsSystem {
    * Get or add counter with the given name.
    * The counter stores in the metrics system is never removed but may reset to zero.
    *
+   * The counter is backed by a {@link java.util.concurrent.atomic.LongAdder}, hot paths should
+   * resolve it once and keep it as a handle rather than call this method per update, which
+   * looks the name up in the registry.
+   *
    * @param name the name of the metric
    * @return a counter object with the qualified metric name
    */
@@ -127,14 +135,51 @@ public class MetricsSystem {
    * @return a counter object with the qualified metric name
    */
   public static Counter counterWithTags(String name, boolean shouldReport, String... tags) {
+    TaggedName key = new TaggedName(name, tags);
+    Tagged<Counter> tagged = TAGGED_COUNTERS.get(key);
+    if (tagged == null) {
+      tagged = TAGGED_COUNTERS.computeIfAbsent(key.copy(), k -> {
+        String fullName = getMetricName(Metric.getMetricNameWithTags(name, tags));
+        return new Tagged<>(fullName, METRIC_REGISTRY.counter(fullName));
+      });
+    }
+    if (shouldReport) {
+      tagged.markShouldReport(MetricType.COUNTER);
+    }
+    return tagged.mMetric;
+  }
+
+
+  /**
+   * Get or add a counter of fractional amounts with the given name. Like {@link #counter(String)},
+   * the counter should be resolved once and kept as a handle.
+   *
+   * @param name the name of the metric
+   * @return a double counter with the qualified metric name
+   * @throws IllegalArgumentException if a metric of another type has the name
+   */
+  public static DoubleCounter doubleCounter(String name) {
+    return METRIC_REGISTRY.gauge(getMetricName(name), DoubleCounter::new);
+  }
+
+  /**
+   * Get or add a counter of fractional amounts with the given name with tags.
+   *
+   * @param name         the metric name
+   * @param shouldReport whether this metric should be reported
+   * @param tags         the tag name and tag value pairs
+   * @return a double counter with the qualified metric name
+   * @throws IllegalArgumentException if a metric of another type has the name
+   */
+  public static DoubleCounter doubleCounterWithTags(String name, boolean shouldReport,
+                                                    String... tags) {
     String fullName = getMetricName(Metric.getMetricNameWithTags(name, tags));
     if (shouldReport) {
       SHOULD_REPORT_METRICS.putIfAbsent(fullName, MetricType.COUNTER);
     }
-    return METRIC_REGISTRY.counter(fullName);
+    return METRIC_REGISTRY.gauge(fullName, DoubleCounter::new);
   }
 
-
   /**
    * Get or add meter with the given name.
    * The returned meter may be changed due to
@@ -160,11 +205,18 @@ public class MetricsSystem {
    * @return a meter object with the qualified metric name
    */
   public static Meter meterWithTags(String name, boolean shouldReport, String... tags) {
-    String fullName = getMetricName(Metric.getMetricNameWithTags(name, tags));
+    TaggedName key = new TaggedName(name, tags);
+    Tagged<Meter> tagged = TAGGED_METERS.get(key);
+    if (tagged == null) {
+      tagged = TAGGED_METERS.computeIfAbsent(key.copy(), k -> {
+        String fullName = getMetricName(Metric.getMetricNameWithTags(name, tags));
+        return new Tagged<>(fullName, METRIC_REGISTRY.meter(fullName));
+      });
+    }
     if (shouldReport) {
-      SHOULD_REPORT_METRICS.putIfAbsent(fullName, MetricType.METER);
+      tagged.markShouldReport(MetricType.METER);
     }
-    return METRIC_REGISTRY.meter(fullName);
+    return tagged.mMetric;
   }
 
   /**
@@ -178,6 +230,36 @@ public class MetricsSystem {
     return METRIC_REGISTRY.timer(getMetricName(name));
   }
 
+  /**
+   * Get or add a histogram timer with the given name and the default options.
+   *
+   * @param name the name of the metric
+   * @return a histogram timer with the qualified metric name
+   * @throws IllegalArgumentException if a metric of another type has the name
+   */
+  public static HistogramTimer histogramTimer(String name) {
+    return histogramTimer(name, HistogramReservoir.Options.defaultOptions());
+  }
+
+  /**
+   * Get or add a histogram timer with the given name. The options are ignored if the timer
+   * exists.
+   *
+   * @param name    the name of the metric
+   * @param options the options of the timer reservoir
+   * @return a histogram timer with the qualified metric name
+   * @throws IllegalArgumentException if a metric of another type has the name
+   */
+  public static HistogramTimer histogramTimer(String name, HistogramReservoir.Options options) {
+    String fullName = getMetricName(name);
+    Timer timer = METRIC_REGISTRY.timer(fullName, () -> new HistogramTimer(options));
+    if (!(timer instanceof HistogramTimer)) {
+      throw new IllegalArgumentException(
+          String.format("%s is already used for a timer which is not a histogram timer", name));
+    }
+    return (HistogramTimer) timer;
+  }
+
   /**
    * Registers a gauge if it has not been registered.
    *
@@ -234,9 +316,8 @@ public class MetricsSystem {
     Map<String, Set<Metric>> res = new HashMap<>();
     for (Map.Entry<String, com.codahale.metrics.Metric> entry
         : METRIC_REGISTRY.getMetrics().entrySet()) {
-      Matcher matcher = METRIC_NAME_PATTERN.matcher(entry.getKey());
-      if (matcher.matches()) {
-        String name = matcher.group(1);
+      String name = MetricName.getBaseNamePart(entry.getKey());
+      if (name != null) {
         if (metricNames.contains(name)) {
           res.computeIfAbsent(name, m -> new HashSet<>())
               .add(getGooseFSMetricFromCodahaleMetric(entry.getKey(), entry.getValue()));
@@ -265,7 +346,9 @@ public class MetricsSystem {
   @Nullable
   private static Metric getGooseFSMetricFromCodahaleMetric(String name,
                                                            com.codahale.metrics.Metric metric) {
-    if (metric instanceof Gauge) {
+    if (metric instanceof DoubleCounter) {
+      return Metric.from(name, ((DoubleCounter) metric).getSum(), MetricType.COUNTER);
+    } else if (metric instanceof Gauge) {
       Gauge gauge = (Gauge) metric;
       return Metric.from(name, ((Number) gauge.getValue()).longValue(), MetricType.GAUGE);
     } else if (metric instanceof Counter) {
@@ -292,7 +375,10 @@ public class MetricsSystem {
         : METRIC_REGISTRY.getMetrics().entrySet()) {
       MetricValue.Builder valueBuilder = MetricValue.newBuilder();
       com.codahale.metrics.Metric metric = entry.getValue();
-      if (metric instanceof Gauge) {
+      if (metric instanceof DoubleCounter) {
+        valueBuilder.setMetricType(MetricType.COUNTER)
+            .setDoubleValue(((DoubleCounter) metric).getSum());
+      } else if (metric instanceof Gauge) {
         Object value = ((Gauge) metric).getValue();
         if (value instanceof Number) {
           valueBuilder.setDoubleValue(((Number) value).doubleValue());
@@ -307,8 +393,10 @@ public class MetricsSystem {
         valueBuilder.setMetricType(MetricType.METER)
             .setDoubleValue(((Meter) metric).getOneMinuteRate());
       } else if (metric instanceof Timer) {
+        Timer timer = (Timer) metric;
         valueBuilder.setMetricType(MetricType.TIMER)
-            .setDoubleValue((double) ((Timer) metric).getCount());
+            .setDoubleValue((double) timer.getCount())
+            .setPercentiles(timer.getSnapshot());
       } else {
         LOG.warn("Metric {} has invalid metric type {}",
             entry.getKey(), metric.getClass().getName());
@@ -331,17 +419,30 @@ public class MetricsSystem {
     for (Counter counter : METRIC_REGISTRY.getCounters().values()) {
       counter.dec(counter.getCount());
     }
+    for (com.codahale.metrics.Metric metric : METRIC_REGISTRY.getMetrics().values()) {
+      if (metric instanceof DoubleCounter) {
+        ((DoubleCounter) metric).reset();
+      }
+    }
 
     // No reset logic exist in Meter, a remove and add combination is needed
     for (String meterName : METRIC_REGISTRY.getMeters().keySet()) {
       METRIC_REGISTRY.remove(meterName);
       METRIC_REGISTRY.meter(meterName);
     }
+    // Cleared after the loop, a handle cached meanwhile may be one of the removed meters.
+    TAGGED_METERS.clear();
 
     // No reset logic exist in Timer, a remove and add combination is needed
-    for (String timerName : METRIC_REGISTRY.getTimers().keySet()) {
+    for (Map.Entry<String, Timer> entry : METRIC_REGISTRY.getTimers().entrySet()) {
+      String timerName = entry.getKey();
       METRIC_REGISTRY.remove(timerName);
-      METRIC_REGISTRY.timer(timerName);
+      if (entry.getValue() instanceof HistogramTimer) {
+        HistogramReservoir.Options options = ((HistogramTimer) entry.getValue()).getOptions();
+        METRIC_REGISTRY.timer(timerName, () -> new HistogramTimer(options));
+      } else {
+        METRIC_REGISTRY.timer(timerName);
+      }
     }
     LAST_REPORTED_METRICS.clear();
     LOG.info("Reset all metrics in the metrics system in {}ms",
@@ -353,6 +454,8 @@ public class MetricsSystem {
    */
   @VisibleForTesting
   public static void clearAllMetrics() {
+    TAGGED_COUNTERS.clear();
+    TAGGED_METERS.clear();
     for (String name : METRIC_REGISTRY.getNames()) {
       METRIC_REGISTRY.remove(name);
     }
@@ -366,8 +469,76 @@ public class MetricsSystem {
     for (Map.Entry<String, Counter> entry : METRIC_REGISTRY.getCounters().entrySet()) {
       entry.getValue().dec(entry.getValue().getCount());
     }
-    for (String gauge : METRIC_REGISTRY.getGauges().keySet()) {
-      METRIC_REGISTRY.remove(gauge);
+    for (Map.Entry<String, Gauge> entry : METRIC_REGISTRY.getGauges().entrySet()) {
+      if (entry.getValue() instanceof DoubleCounter) {
+        // Counters are kept, their handles may be held by the code updating them.
+        ((DoubleCounter) entry.getValue()).reset();
+      } else {
+        METRIC_REGISTRY.remove(entry.getKey());
+      }
+    }
+  }
+
+  /**
+   * A metric name and its tags, the key of the tagged metric caches.
+   */
+  private static final class TaggedName {
+    private final String mName;
+    private final String[] mTags;
+    private final int mHashCode;
+
+    private TaggedName(String name, String[] tags) {
+      mName = name;
+      mTags = tags;
+      mHashCode = 31 * name.hashCode() + Arrays.hashCode(tags);
+    }
+
+    /**
+     * @return a key owning its tags, the caller may reuse the array passed as varargs
+     */
+    private TaggedName copy() {
+      return new TaggedName(mName, mTags.clone());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof TaggedName)) {
+        return false;
+      }
+      TaggedName that = (TaggedName) o;
+      return mHashCode == that.mHashCode && mName.equals(that.mName)
+          && Arrays.equals(mTags, that.mTags);
+    }
+
+    @Override
+    public int hashCode() {
+      return mHashCode;
+    }
+  }
+
+  /**
+   * A tagged metric with its full name.
+   *
+   * @param <M> the type of the metric
+   */
+  private static final class Tagged<M> {
+    private final String mFullName;
+    private final M mMetric;
+    private volatile boolean mShouldReport;
+
+    private Tagged(String fullName, M metric) {
+      mFullName = fullName;
+      mMetric = metric;
+    }
+
+    private void markShouldReport(MetricType type) {
+      if (!mShouldReport) {
+        SHOULD_REPORT_METRICS.putIfAbsent(mFullName, type);
+        mShouldReport = true;
+      }
     }
   }
 
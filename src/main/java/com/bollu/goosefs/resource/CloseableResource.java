@@ -1,6 +1,5 @@
 package com.bollu.goosefs.resource;
 
-import io.netty.util.ResourceLeakDetector;
 import io.netty.util.ResourceLeakTracker;
 
 import javax.annotation.Nullable;
@@ -8,14 +7,13 @@ import java.io.Closeable;
 
 public abstract class CloseableResource<T> implements Closeable {
 
-  private static final ResourceLeakDetector<CloseableResource> DETECTOR =
-      CustomResourceLeakDetectorFactory.instance()
-          .newResourceLeakDetector(CloseableResource.class);
+  private static final CustomResourceLeakDetector<CloseableResource> DETECTOR =
+      CustomResourceLeakDetectorFactory.instance().newSampledDetector(CloseableResource.class);
 
   private final T mResource;
 
   @Nullable
-  private final ResourceLeakTracker<CloseableResource> mTracker = DETECTOR.track(this);
+  private ResourceLeakTracker<CloseableResource> mTracker = DETECTOR.trackSampled(this);
 
   public CloseableResource(T resource) {
     mResource = resource;
@@ -29,6 +27,7 @@ public abstract class CloseableResource<T> implements Closeable {
   public void close() {
     if (mTracker != null) {
       mTracker.close(this);
+      mTracker = null;
     }
     closeResource();
   }
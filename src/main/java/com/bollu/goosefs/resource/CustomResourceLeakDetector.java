@@ -3,15 +3,31 @@ package com.bollu.goosefs.resource;
 import com.bollu.goosefs.config.InstancedConfiguration;
 import com.bollu.goosefs.config.PropertyKey;
 import io.netty.util.ResourceLeakDetector;
+import io.netty.util.ResourceLeakTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A leak detector reporting leaks to the {@link ResourceLeakRegistry}, which de-duplicates them
+ * by allocation stack.
+ *
+ * Resources should be registered with {@link #trackSampled(Object)}, which only tracks one in
+ * every {@code samplingInterval} resources, every resource at the PARANOID level, and at most
+ * {@code maxActive} resources at a time. An untracked resource costs a random number, no
+ * allocation.
+ *
+ * @param <T> the type of the tracked resources
+ */
 public class CustomResourceLeakDetector<T> extends ResourceLeakDetector<T> {
   private static final Logger LOGGER = LoggerFactory.getLogger(CustomResourceLeakDetector.class);
 
-  private static final String DOC_URL = "https://docs.alluxio.io/os/user/stable/en/operation/"
-      + "Troubleshooting.html#resource-leak-detection";
-
   static {
     ResourceLeakDetector.Level lev = InstancedConfiguration.defaults()
         .getEnum(PropertyKey.LEAK_DETECTOR_LEVEL, Level.class);
@@ -19,30 +35,116 @@ public class CustomResourceLeakDetector<T> extends ResourceLeakDetector<T> {
   }
 
   private final boolean mExitOnLeak;
+  private final int mSamplingInterval;
+  private final long mMaxActive;
+  /** The tracked resources not closed yet, bounded by {@link #mMaxActive}. */
+  private final Set<SampledTracker> mActive = ConcurrentHashMap.newKeySet();
+  /** Trackers whose resource was collected without being closed. */
+  private final ReferenceQueue<Object> mCollected = new ReferenceQueue<>();
 
   public CustomResourceLeakDetector(Class<?> resourceType, int samplingInterval,
                                      boolean exitOnLeak) {
-    super(resourceType, samplingInterval);
+    this(resourceType, samplingInterval, Long.MAX_VALUE, exitOnLeak);
+  }
+
+  /**
+   * @param resourceType the type of the tracked resources
+   * @param samplingInterval tracks one in every this many resources
+   * @param maxActive the max number of resources tracked at a time
+   * @param exitOnLeak whether to exit the JVM when a leak is detected
+   */
+  public CustomResourceLeakDetector(Class<?> resourceType, int samplingInterval, long maxActive,
+                                     boolean exitOnLeak) {
+    // Sampling is done by trackSampled, the resources it passes on must all be tracked.
+    super(resourceType, 1);
     mExitOnLeak = exitOnLeak;
+    mSamplingInterval = Math.max(samplingInterval, 1);
+    mMaxActive = maxActive;
+  }
+
+  /**
+   * Tracks the resource if it is sampled.
+   *
+   * @param obj the resource
+   * @return the tracker to close with the resource, null if the resource is not tracked
+   */
+  @Nullable
+  public ResourceLeakTracker<T> trackSampled(T obj) {
+    Level level = getLevel();
+    if (level == Level.DISABLED) {
+      return null;
+    }
+    if (level != Level.PARANOID && mSamplingInterval > 1
+        && ThreadLocalRandom.current().nextInt(mSamplingInterval) != 0) {
+      return null;
+    }
+    expungeCollected();
+    if (mActive.size() >= mMaxActive) {
+      return null;
+    }
+    ResourceLeakTracker<T> tracker = track(obj);
+    if (tracker == null) {
+      return null;
+    }
+    SampledTracker sampled = new SampledTracker(obj, tracker);
+    mActive.add(sampled);
+    return sampled;
+  }
+
+  /**
+   * Frees the slots of the resources collected without being closed, their leak is reported by
+   * the underlying detector.
+   */
+  private void expungeCollected() {
+    Object ref;
+    while ((ref = mCollected.poll()) != null) {
+      mActive.remove(ref);
+    }
+  }
+
+  /**
+   * Counts the resource in {@link #mActive} until it is closed or collected.
+   */
+  private final class SampledTracker extends WeakReference<Object>
+      implements ResourceLeakTracker<T> {
+    private final ResourceLeakTracker<T> mDelegate;
+
+    private SampledTracker(T obj, ResourceLeakTracker<T> delegate) {
+      super(obj, mCollected);
+      mDelegate = delegate;
+    }
+
+    @Override
+    public void record() {
+      mDelegate.record();
+    }
+
+    @Override
+    public void record(Object hint) {
+      mDelegate.record(hint);
+    }
+
+    @Override
+    public boolean close(T trackedObject) {
+      clear();
+      mActive.remove(this);
+      return mDelegate.close(trackedObject);
+    }
   }
 
   @Override
   protected void reportTracedLeak(String resourceType, String records) {
-    LOGGER.error("LEAK: {}.close() was not called before resource is garbage-collected. "
-            + "See {} for more information about this message.{}",
-        resourceType, DOC_URL, records);
-    if (mExitOnLeak) {
-      LOGGER.error("Leak detected when {} set to true. Shutting down the JVM",
-          PropertyKey.Name.LEAK_DETECTOR_EXIT_ON_LEAK);
-      System.exit(1);
-    }
+    ResourceLeakRegistry.instance().report(resourceType, records);
+    exitIfConfigured();
   }
 
   @Override
   protected void reportUntracedLeak(String resourceType) {
-    LOGGER.error("LEAK: {}.close() was not called before resource is garbage-collected. "
-            + "See {} for more information about this message.",
-        resourceType, DOC_URL);
+    ResourceLeakRegistry.instance().report(resourceType, null);
+    exitIfConfigured();
+  }
+
+  private void exitIfConfigured() {
     if (mExitOnLeak) {
       LOGGER.error("Leak detected when {} set to true. Shutting down the JVM",
           PropertyKey.Name.LEAK_DETECTOR_EXIT_ON_LEAK);
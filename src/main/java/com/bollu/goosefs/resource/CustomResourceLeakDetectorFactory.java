@@ -6,25 +6,68 @@ import io.netty.util.ResourceLeakDetector;
 import io.netty.util.ResourceLeakDetectorFactory;
 
 public class CustomResourceLeakDetectorFactory extends ResourceLeakDetectorFactory {
-  private static final ResourceLeakDetectorFactory INSTANCE =
+  private static final CustomResourceLeakDetectorFactory INSTANCE =
       new CustomResourceLeakDetectorFactory();
 
   private final boolean mExitOnLeak = (boolean) InstancedConfiguration.defaults().getBoolean(
       PropertyKey.LEAK_DETECTOR_EXIT_ON_LEAK);
 
-  public static ResourceLeakDetectorFactory instance() {
+  public static CustomResourceLeakDetectorFactory instance() {
     return INSTANCE;
   }
 
   @Override
   public <T> ResourceLeakDetector<T> newResourceLeakDetector(Class<T> resource,
                                                              int samplingInterval, long maxActive) {
-    return newResourceLeakDetector(resource, samplingInterval);
+    return newSampledDetector(resource, samplingInterval, maxActive);
   }
 
   @Override
   public <T> ResourceLeakDetector<T> newResourceLeakDetector(Class<T> resource,
                                                              int samplingInterval) {
-    return new CustomResourceLeakDetector<>(resource, samplingInterval, mExitOnLeak);
+    return newSampledDetector(resource, samplingInterval,
+        InstancedConfiguration.defaults().getLong(PropertyKey.LEAK_DETECTOR_MAX_ACTIVE));
   }
-}
+
+  /**
+   * Creates a detector sampling the resources of the type as configured by
+   * {@link PropertyKey#LEAK_DETECTOR_SAMPLING_INTERVAL} and
+   * {@link PropertyKey#LEAK_DETECTOR_MAX_ACTIVE}, unless set for the type.
+   *
+   * @param resource the type of the tracked resources
+   * @param <T> the type of the tracked resources
+   * @return the detector
+   */
+  public <T> CustomResourceLeakDetector<T> newSampledDetector(Class<T> resource) {
+    InstancedConfiguration conf = InstancedConfiguration.defaults();
+    return newSampledDetector(resource, conf.getInt(PropertyKey.LEAK_DETECTOR_SAMPLING_INTERVAL),
+        conf.getLong(PropertyKey.LEAK_DETECTOR_MAX_ACTIVE));
+  }
+
+  /**
+   * Creates a detector sampling the resources of the type with the given settings. Settings of
+   * {@link PropertyKey.Template#LEAK_DETECTOR_TYPE_SAMPLING_INTERVAL} and
+   * {@link PropertyKey.Template#LEAK_DETECTOR_TYPE_MAX_ACTIVE} for the type take precedence.
+   *
+   * @param resource the type of the tracked resources
+   * @param samplingInterval tracks one in every this many resources
+   * @param maxActive the max number of resources tracked at a time
+   * @param <T> the type of the tracked resources
+   * @return the detector
+   */
+  public <T> CustomResourceLeakDetector<T> newSampledDetector(Class<T> resource,
+      int samplingInterval, long maxActive) {
+    InstancedConfiguration conf = InstancedConfiguration.defaults();
+    PropertyKey samplingKey = PropertyKey.Template.LEAK_DETECTOR_TYPE_SAMPLING_INTERVAL
+        .format(resource.getSimpleName());
+    PropertyKey maxActiveKey = PropertyKey.Template.LEAK_DETECTOR_TYPE_MAX_ACTIVE
+        .format(resource.getSimpleName());
+    if (conf.isSet(samplingKey)) {
+      samplingInterval = conf.getInt(samplingKey);
+    }
+    if (conf.isSet(maxActiveKey)) {
+      maxActive = conf.getLong(maxActiveKey);
+    }
+    return new CustomResourceLeakDetector<>(resource, samplingInterval, maxActive, mExitOnLeak);
+  }
+}
\ No newline at end of file
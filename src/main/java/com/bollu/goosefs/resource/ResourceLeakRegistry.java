@@ -0,0 +1,222 @@
+package com.bollu.goosefs.resource;
+
+import com.bollu.goosefs.common.utils.FormatUtils;
+import com.bollu.goosefs.config.InstancedConfiguration;
+import com.bollu.goosefs.config.PropertyKey;
+import com.bollu.goosefs.prometheus.metrics.Metric;
+import com.bollu.goosefs.prometheus.metrics.MetricKey;
+import com.bollu.goosefs.prometheus.metrics.MetricsSystem;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Aggregates the leaks reported by the {@link CustomResourceLeakDetector}s of the process by
+ * resource type and allocation stack, so a leaking code path shows up as one counted entry
+ * instead of one log line per leaked resource.
+ *
+ * Each leak increments the {@link MetricKey#RESOURCE_LEAKS} counter of its type. The first leak
+ * of an allocation stack is logged with its records, further ones at most once per
+ * {@link PropertyKey#LEAK_DETECTOR_LOG_INTERVAL} with the number of leaks since. At most
+ * {@link #MAX_SIGNATURES} allocation stacks are kept, the leaks of further ones are only counted.
+ */
+@ThreadSafe
+public final class ResourceLeakRegistry {
+  private static final Logger LOG = LoggerFactory.getLogger(ResourceLeakRegistry.class);
+
+  public static final String TAG_RESOURCE_TYPE = "ResourceType";
+  /** The max number of distinct allocation stacks kept. */
+  public static final int MAX_SIGNATURES = 1024;
+  /** The signature of the leaks reported without records. */
+  static final String UNTRACED = "<untraced>";
+
+  private static final String CREATED_AT = "Created at:";
+  private static final String DOC_URL = "https://docs.alluxio.io/os/user/stable/en/operation/"
+      + "Troubleshooting.html#resource-leak-detection";
+
+  private static final ResourceLeakRegistry INSTANCE = new ResourceLeakRegistry(
+      InstancedConfiguration.defaults().getMs(PropertyKey.LEAK_DETECTOR_LOG_INTERVAL));
+
+  private final long mLogIntervalMs;
+  private final ConcurrentHashMap<String, Entry> mEntries = new ConcurrentHashMap<>();
+  /** Leaks whose allocation stack was not kept as {@link #MAX_SIGNATURES} were already. */
+  private final LongAdder mDropped = new LongAdder();
+  private final AtomicLong mLastDroppedLogMs = new AtomicLong();
+
+  /**
+   * @return the registry of the process
+   */
+  public static ResourceLeakRegistry instance() {
+    return INSTANCE;
+  }
+
+  private ResourceLeakRegistry(long logIntervalMs) {
+    mLogIntervalMs = logIntervalMs;
+  }
+
+  /**
+   * Records a leak.
+   *
+   * @param resourceType the type of the leaked resource
+   * @param records the records of the leak as reported by netty, null if it was not traced
+   */
+  void report(String resourceType, @Nullable String records) {
+    MetricsSystem.counter(Metric.getMetricNameWithTags(MetricKey.RESOURCE_LEAKS.getName(),
+        TAG_RESOURCE_TYPE, resourceType)).inc();
+    String signature = records == null ? UNTRACED : getSignature(records);
+    String key = resourceType + '\n' + signature;
+    Entry entry = mEntries.get(key);
+    if (entry == null) {
+      if (mEntries.size() >= MAX_SIGNATURES) {
+        mDropped.increment();
+        long nowMs = System.currentTimeMillis();
+        long lastMs = mLastDroppedLogMs.get();
+        if (nowMs - lastMs >= mLogIntervalMs && mLastDroppedLogMs.compareAndSet(lastMs, nowMs)) {
+          LOG.error("LEAK: {}.close() was not called before resource is garbage-collected, {} "
+              + "leaks of distinct allocation stacks were not recorded. See {} for more "
+              + "information about this message.", resourceType, mDropped.sum(), DOC_URL);
+        }
+        return;
+      }
+      Entry created = new Entry(resourceType, signature);
+      entry = mEntries.putIfAbsent(key, created);
+      if (entry == null) {
+        created.mCount.increment();
+        LOG.error("LEAK: {}.close() was not called before resource is garbage-collected. "
+                + "See {} for more information about this message.{}",
+            resourceType, DOC_URL, records == null ? "" : records);
+        return;
+      }
+    }
+    long nowMs = System.currentTimeMillis();
+    entry.mCount.increment();
+    entry.mLastSeenMs = nowMs;
+    entry.maybeLog(nowMs, mLogIntervalMs);
+  }
+
+  /**
+   * @return the recorded leaks, most frequent first
+   */
+  public List<Entry> getEntries() {
+    List<Entry> entries = new ArrayList<>(mEntries.values());
+    entries.sort(Comparator.comparingLong(Entry::getCount).reversed());
+    return entries;
+  }
+
+  /**
+   * @return the number of leaks whose allocation stack was not kept
+   */
+  public long getDroppedCount() {
+    return mDropped.sum();
+  }
+
+  /**
+   * @return the recorded leaks as JSON
+   */
+  public String toJson() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\"dropped\":").append(getDroppedCount()).append(",\"leaks\":[");
+    List<Entry> entries = getEntries();
+    for (int i = 0; i < entries.size(); i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      Entry entry = entries.get(i);
+      sb.append('{');
+      FormatUtils.appendJsonField(sb, "resourceType", entry.mResourceType).append(',');
+      sb.append("\"count\":").append(entry.getCount())
+          .append(",\"firstSeenMs\":").append(entry.mFirstSeenMs)
+          .append(",\"lastSeenMs\":").append(entry.mLastSeenMs).append(',');
+      FormatUtils.appendJsonField(sb, "allocationStack", entry.mSignature).append('}');
+    }
+    return sb.append("]}").toString();
+  }
+
+  /**
+   * @param records the records of a leak
+   * @return the allocation stack in the records, the records if they have none
+   */
+  static String getSignature(String records) {
+    int index = records.lastIndexOf(CREATED_AT);
+    String signature = index < 0 ? records : records.substring(index + CREATED_AT.length());
+    return signature.trim();
+  }
+
+  /**
+   * The leaks of a resource type allocated at the same stack.
+   */
+  public static final class Entry {
+    private final String mResourceType;
+    private final String mSignature;
+    private final long mFirstSeenMs;
+    private final LongAdder mCount = new LongAdder();
+    private volatile long mLastSeenMs;
+    private final AtomicLong mLastLogMs;
+    /** The count when the entry was last logged. */
+    private volatile long mLoggedCount = 1;
+
+    private Entry(String resourceType, String signature) {
+      mResourceType = Preconditions.checkNotNull(resourceType, "resourceType");
+      mSignature = signature;
+      mFirstSeenMs = System.currentTimeMillis();
+      mLastSeenMs = mFirstSeenMs;
+      mLastLogMs = new AtomicLong(mFirstSeenMs);
+    }
+
+    private void maybeLog(long nowMs, long logIntervalMs) {
+      long lastMs = mLastLogMs.get();
+      if (nowMs - lastMs < logIntervalMs || !mLastLogMs.compareAndSet(lastMs, nowMs)) {
+        return;
+      }
+      long count = mCount.sum();
+      LOG.error("LEAK: {}.close() was not called before resource is garbage-collected, {} more "
+              + "times ({} in total) for the allocation stack:\n{}",
+          mResourceType, count - mLoggedCount, count, mSignature);
+      mLoggedCount = count;
+    }
+
+    /**
+     * @return the type of the leaked resources
+     */
+    public String getResourceType() {
+      return mResourceType;
+    }
+
+    /**
+     * @return the allocation stack of the leaked resources
+     */
+    public String getSignature() {
+      return mSignature;
+    }
+
+    /**
+     * @return the number of leaks
+     */
+    public long getCount() {
+      return mCount.sum();
+    }
+
+    /**
+     * @return when the first leak was reported
+     */
+    public long getFirstSeenMs() {
+      return mFirstSeenMs;
+    }
+
+    /**
+     * @return when the last leak was reported
+     */
+    public long getLastSeenMs() {
+      return mLastSeenMs;
+    }
+  }
+}
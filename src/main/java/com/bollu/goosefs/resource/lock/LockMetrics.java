@@ -0,0 +1,80 @@
+package com.bollu.goosefs.resource.lock;
+
+import com.bollu.goosefs.prometheus.metrics.Metric;
+import com.bollu.goosefs.prometheus.metrics.MetricKey;
+import com.bollu.goosefs.prometheus.metrics.MetricsSystem;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in instrumentation of lock acquisitions. A {@link LockResource} created without an
+ * instance of this class only pays a null check, one created with it records the wait time,
+ * hold time and tryLock spins of one in every {@code samplingInterval} acquisitions.
+ *
+ * The metrics are registered in {@link MetricsSystem#METRIC_REGISTRY} under the lock
+ * {@link MetricKey}s, tagged with the given name.
+ */
+@ThreadSafe
+public final class LockMetrics {
+  public static final String TAG_LOCK = "Lock";
+
+  private final String mName;
+  private final int mSamplingInterval;
+  private final Timer mWaitTime;
+  private final Timer mHoldTime;
+  private final Counter mTryLockSpins;
+
+  /**
+   * @param name the name tagged on the metrics, e.g. the name of the lock pool
+   * @param samplingInterval records one in every this many acquisitions, 1 records all of them
+   */
+  public LockMetrics(String name, int samplingInterval) {
+    Preconditions.checkNotNull(name, "name");
+    Preconditions.checkArgument(samplingInterval > 0, "samplingInterval must be positive: %s",
+        samplingInterval);
+    mName = name;
+    mSamplingInterval = samplingInterval;
+    mWaitTime = MetricsSystem.histogramTimer(getMetricName(MetricKey.LOCK_ACQUIRE_WAIT_TIME));
+    mHoldTime = MetricsSystem.histogramTimer(getMetricName(MetricKey.LOCK_HOLD_TIME));
+    mTryLockSpins = MetricsSystem.counter(getMetricName(MetricKey.LOCK_TRY_LOCK_SPINS));
+  }
+
+  /**
+   * @return the name tagged on the metrics
+   */
+  public String getName() {
+    return mName;
+  }
+
+  /**
+   * @param key the metric key
+   * @return the metric name of the key tagged with the name of this instance
+   */
+  public String getMetricName(MetricKey key) {
+    return Metric.getMetricNameWithTags(key.getName(), TAG_LOCK, mName);
+  }
+
+  /**
+   * @return whether the current acquisition should be recorded
+   */
+  boolean shouldSample() {
+    return mSamplingInterval == 1
+        || ThreadLocalRandom.current().nextInt(mSamplingInterval) == 0;
+  }
+
+  void recordWait(long waitNanos, int tryLockSpins) {
+    mWaitTime.update(waitNanos, TimeUnit.NANOSECONDS);
+    if (tryLockSpins > 0) {
+      mTryLockSpins.inc(tryLockSpins);
+    }
+  }
+
+  void recordHold(long holdNanos) {
+    mHoldTime.update(holdNanos, TimeUnit.NANOSECONDS);
+  }
+}
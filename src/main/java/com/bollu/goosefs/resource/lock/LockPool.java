@@ -2,19 +2,34 @@ package com.bollu.goosefs.resource.lock;
 
 import com.bollu.goosefs.common.constant.Constants;
 import com.bollu.goosefs.common.utils.ThreadFactoryUtils;
+import com.bollu.goosefs.prometheus.metrics.MetricKey;
+import com.bollu.goosefs.prometheus.metrics.MetricsSystem;
+import com.bollu.goosefs.resource.lock.eviction.EvictionPolicy;
+import com.bollu.goosefs.resource.lock.eviction.EvictionPolicyType;
+import com.bollu.goosefs.resource.lock.eviction.EvictionStats;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.base.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -22,6 +37,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
@@ -31,21 +47,88 @@ public class LockPool<K> implements Closeable {
   private static final Logger LOG = LoggerFactory.getLogger(LockPool.class);
   private static final float DEFAULT_LOAD_FACTOR = 0.75f;
   private static final String EVICTOR_THREAD_NAME = "LockPool Evictor";
-  private final Map<K, Resource> mPool;
-  private final Function<? super K, ? extends ReentrantReadWriteLock> mDefaultLoader;
+  private final Map<K, Resource<K>> mPool;
+  private final Function<? super K, ? extends ReadWriteLock> mDefaultLoader;
+  /** Whether the locks are {@link StampedReadWriteLock}s, see {@link #withStampedLocks}. */
+  private final boolean mStampedLocks;
   private final int mLowWatermark;
   private final int mHighWatermark;
   private final Lock mEvictLock = new ReentrantLock();
   private final Condition mOverHighWatermark = mEvictLock.newCondition();
   private final ExecutorService mEvictor;
   private final Future<?> mEvictorTask;
+  private final EvictionPolicy<K> mEvictionPolicy;
+  private final EvictionStats mEvictionStats;
+  private final int mEvictionBatchSize;
+  private final long mEvictionSliceTimeNanos;
+  @Nullable
+  private final LockMetrics mMetrics;
+  @Nullable
+  private final Counter mEvictionCounter;
+  @Nullable
+  private final Timer mEvictionTimer;
+  @Nullable
+  private final LockWatchdog mWatchdog;
 
   public LockPool(Function<? super K, ? extends ReentrantReadWriteLock> defaultLoader,
                   int initialSize, int lowWatermark, int highWatermark, int concurrencyLevel) {
+    this(defaultLoader, initialSize, lowWatermark, highWatermark, concurrencyLevel,
+        Options.defaultOptions());
+  }
+
+  public LockPool(Function<? super K, ? extends ReentrantReadWriteLock> defaultLoader,
+                  int initialSize, int lowWatermark, int highWatermark, int concurrencyLevel,
+                  Options options) {
+    this(defaultLoader, false, initialSize, lowWatermark, highWatermark, concurrencyLevel,
+        options);
+  }
+
+  /**
+   * Creates a pool locking its keys with {@link StampedReadWriteLock}s. Their locks may be
+   * released by any thread, which {@link #acquireAsync} requires, and they support
+   * {@link #tryOptimisticRead}. They are NOT reentrant: a thread locking a key it already
+   * holds, in any mode, deadlocks.
+   *
+   * @param initialSize the initial size of the pool
+   * @param lowWatermark the size the evictor shrinks the pool to
+   * @param highWatermark the size above which the evictor runs
+   * @param concurrencyLevel the concurrency level of the map of entries
+   * @param options the options
+   * @param <K> the type of the keys
+   * @return the pool
+   */
+  public static <K> LockPool<K> withStampedLocks(int initialSize, int lowWatermark,
+      int highWatermark, int concurrencyLevel, Options options) {
+    return new LockPool<>(k -> new StampedReadWriteLock(), true, initialSize, lowWatermark,
+        highWatermark, concurrencyLevel, options);
+  }
+
+  private LockPool(Function<? super K, ? extends ReadWriteLock> defaultLoader,
+                   boolean stampedLocks, int initialSize, int lowWatermark, int highWatermark,
+                   int concurrencyLevel, Options options) {
     mDefaultLoader = defaultLoader;
+    mStampedLocks = stampedLocks;
     mLowWatermark = lowWatermark;
     mHighWatermark = highWatermark;
     mPool = new ConcurrentHashMap<>(initialSize, DEFAULT_LOAD_FACTOR, concurrencyLevel);
+    mEvictionPolicy = options.getEvictionPolicyType().create(highWatermark);
+    mEvictionStats = new EvictionStats(mEvictionPolicy.toString());
+    mEvictionBatchSize = options.getEvictionBatchSize();
+    mEvictionSliceTimeNanos = TimeUnit.MICROSECONDS.toNanos(options.getEvictionSliceTimeUs());
+    mWatchdog = options.getWatchdog();
+    if (options.getMetricsName() != null) {
+      mMetrics = new LockMetrics(options.getMetricsName(), options.getMetricsSamplingInterval());
+      mEvictionCounter =
+          MetricsSystem.counter(mMetrics.getMetricName(MetricKey.LOCK_POOL_EVICTIONS));
+      mEvictionTimer =
+          MetricsSystem.timer(mMetrics.getMetricName(MetricKey.LOCK_POOL_EVICTION_TIME));
+      MetricsSystem.registerGaugeIfAbsent(mMetrics.getMetricName(MetricKey.LOCK_POOL_SIZE),
+          mPool::size);
+    } else {
+      mMetrics = null;
+      mEvictionCounter = null;
+      mEvictionTimer = null;
+    }
     mEvictor = Executors.newSingleThreadExecutor(
         ThreadFactoryUtils.build(String.format("%s-%s", EVICTOR_THREAD_NAME, toString()), true));
     mEvictorTask = mEvictor.submit(new Evictor());
@@ -53,6 +136,10 @@ public class LockPool<K> implements Closeable {
 
   @Override
   public void close() throws IOException {
+    if (mMetrics != null) {
+      // The gauge references the pool, do not keep it alive after close.
+      MetricsSystem.METRIC_REGISTRY.remove(mMetrics.getMetricName(MetricKey.LOCK_POOL_SIZE));
+    }
     mEvictorTask.cancel(true);
     mEvictor.shutdownNow(); // immediately halt the evictor thread.
     try {
@@ -68,43 +155,303 @@ public class LockPool<K> implements Closeable {
   }
 
   public RWLockResource get(K key, LockMode mode, boolean useTryLock) {
-    Resource resource = getResource(key);
-    return new RefCountLockResource(resource.mLock, mode, true, resource.mRefCount, useTryLock);
+    Resource<K> resource = getResource(key);
+    if (mWatchdog == null) {
+      return new PooledLockResource(resource, mode, true, useTryLock);
+    }
+    long startNanos = System.nanoTime();
+    if (tryLockNow(modeLock(resource.mLock, mode))) {
+      // Recorded as the lock path would, so the uncontended acquisitions are not left out.
+      PooledLockResource lockResource = new PooledLockResource(resource, mode, false, false);
+      lockResource.recordWait(startNanos, 0);
+      return lockResource;
+    }
+    mWatchdog.startWaiting(resource.mLock, resource.mKey, mode);
+    try {
+      return new PooledLockResource(resource, mode, true, useTryLock);
+    } finally {
+      mWatchdog.stopWaiting();
+    }
   }
 
   public Optional<RWLockResource> tryGet(K key, LockMode mode) {
-    Resource resource = getResource(key);
-    ReentrantReadWriteLock lock = resource.mLock;
-    Lock innerLock;
+    Resource<K> resource = getResource(key);
+    if (!modeLock(resource.mLock, mode).tryLock()) {
+      return Optional.empty();
+    }
+    return Optional.of(new PooledLockResource(resource, mode, false, false));
+  }
+
+  /**
+   * Locks several keys at once, see {@link #getAll(Collection, LockMode, Comparator)}. The keys
+   * must be {@link Comparable} and are locked in their natural order.
+   *
+   * @param keys the keys to lock
+   * @param mode the mode to lock all keys in
+   * @return the locked keys, to be closed exactly once
+   */
+  @SuppressWarnings("unchecked")
+  public LockedKeys getAll(Collection<? extends K> keys, LockMode mode) {
+    return getAll(keys, mode, (Comparator<? super K>) Comparator.naturalOrder());
+  }
+
+  /**
+   * Locks several keys at once. The keys are locked one after the other in the given order,
+   * duplicates only once, so callers locking overlapping key sets with the same order never
+   * deadlock each other. Each key costs one reference and one lock, and the whole set is
+   * released by closing the single returned resource.
+   *
+   * @param keys the keys to lock
+   * @param mode the mode to lock all keys in
+   * @param order the canonical order of the keys, must be consistent with equals and the same
+   *              for every caller locking the same keys
+   * @return the locked keys, to be closed exactly once
+   */
+  public LockedKeys getAll(Collection<? extends K> keys, LockMode mode,
+      Comparator<? super K> order) {
+    Preconditions.checkNotNull(keys, "keys");
+    Preconditions.checkNotNull(mode, "mode");
+    Preconditions.checkNotNull(order, "order");
+    List<K> sorted = new ArrayList<>(keys);
+    sorted.sort(order);
+    LockedKeys locked = new LockedKeys(mode, sorted.size());
+    try {
+      K previous = null;
+      for (K key : sorted) {
+        if (previous != null && order.compare(previous, key) == 0) {
+          continue;
+        }
+        locked.add(key);
+        previous = key;
+      }
+    } catch (RuntimeException | Error e) {
+      locked.close();
+      throw e;
+    }
+    return locked;
+  }
+
+  /**
+   * Locks the key unless the deadline passes first. Instead of blocking in {@link Lock#lock()},
+   * the thread retries {@link Lock#tryLock()} with exponentially longer parks in between and
+   * gives up at the deadline, so overloaded callers can shed the request.
+   *
+   * @param key the key to lock
+   * @param mode the mode to lock in
+   * @param deadlineNanos the {@link System#nanoTime()} after which to give up
+   * @return the locked resource, empty if the deadline passed
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public Optional<RWLockResource> tryGet(K key, LockMode mode, long deadlineNanos)
+      throws InterruptedException {
+    Preconditions.checkNotNull(mode, "mode");
+    Resource<K> resource = getResource(key);
+    long startNanos = System.nanoTime();
+    int spins;
+    if (mWatchdog != null) {
+      mWatchdog.startWaiting(resource.mLock, resource.mKey, mode);
+    }
+    try {
+      spins = LockResource.acquireBefore(modeLock(resource.mLock, mode), deadlineNanos);
+    } catch (InterruptedException e) {
+      resource.release();
+      throw e;
+    } finally {
+      if (mWatchdog != null) {
+        mWatchdog.stopWaiting();
+      }
+    }
+    if (spins < 0) {
+      resource.release();
+      return Optional.empty();
+    }
+    PooledLockResource lockResource = new PooledLockResource(resource, mode, false, false);
+    lockResource.recordWait(startNanos, spins);
+    return Optional.of(lockResource);
+  }
+
+  /**
+   * Locks the key without blocking the calling thread. If the lock can not be taken right away,
+   * the request joins a FIFO queue of the key and the future completes, on the thread releasing
+   * the lock, once every earlier asynchronous request for the key has been served and the lock
+   * is available. Cancelling the future withdraws the request.
+   *
+   * The resource may be closed from any thread, so only pools created with
+   * {@link #withStampedLocks} support this. Requests queued here are ordered among themselves
+   * only, blocking {@link #get} calls may take the lock ahead of them.
+   *
+   * @param key the key to lock
+   * @param mode the mode to lock in
+   * @return a future completed with the locked resource
+   * @throws IllegalStateException if the pool was not created with {@link #withStampedLocks}
+   */
+  public CompletableFuture<RWLockResource> acquireAsync(K key, LockMode mode) {
+    Preconditions.checkNotNull(mode, "mode");
+    Preconditions.checkState(mStampedLocks,
+        "acquireAsync requires locks which can be released by any thread, "
+            + "create the pool with LockPool.withStampedLocks");
+    Resource<K> resource = getResource(key);
+    ConcurrentLinkedQueue<Waiter> waiters = resource.mWaiters;
+    if ((waiters == null || waiters.isEmpty()) && modeLock(resource.mLock, mode).tryLock()) {
+      return CompletableFuture.completedFuture(
+          new PooledLockResource(resource, mode, false, false, true));
+    }
+    CompletableFuture<RWLockResource> future = new CompletableFuture<>();
+    resource.waiters().add(new Waiter(mode, future));
+    // The lock may have been released before the waiter was queued.
+    drainWaiters(resource);
+    return future;
+  }
+
+  /**
+   * Hands the lock of the entry to the queued asynchronous requests at the head of its queue, as
+   * long as the lock can be taken. Called after every release of the lock through the pool.
+   */
+  private void drainWaiters(Resource<K> resource) {
+    ConcurrentLinkedQueue<Waiter> waiters = resource.mWaiters;
+    if (waiters == null || waiters.isEmpty()) {
+      return;
+    }
+    List<Waiter> granted = null;
+    synchronized (waiters) {
+      Waiter waiter;
+      while ((waiter = waiters.peek()) != null) {
+        if (waiter.mFuture.isDone()) {
+          // Cancelled while waiting.
+          waiters.poll();
+          resource.release();
+          continue;
+        }
+        if (!modeLock(resource.mLock, waiter.mMode).tryLock()) {
+          break;
+        }
+        waiters.poll();
+        if (granted == null) {
+          granted = new ArrayList<>();
+        }
+        granted.add(waiter);
+      }
+    }
+    if (granted == null) {
+      return;
+    }
+    // Complete outside the monitor, the callbacks of the futures run on this thread.
+    for (Waiter waiter : granted) {
+      PooledLockResource lockResource =
+          new PooledLockResource(resource, waiter.mMode, false, false, true);
+      if (!waiter.mFuture.complete(lockResource)) {
+        // Cancelled after the lock was taken for it.
+        lockResource.close();
+      }
+    }
+  }
+
+  /**
+   * Starts an optimistic read of the key. Unlike {@link #get}, this takes no lock, touches no
+   * reference count and records no access, so it writes no shared memory. The read must be
+   * checked with {@link OptimisticReadResource#validate()} afterwards and redone under
+   * {@link #get} if the check fails.
+   *
+   * Only pools created with {@link #withStampedLocks} support optimistic reads, other pools,
+   * and keys not in the pool yet, always return a resource which does not validate.
+   *
+   * @param key the key to read
+   * @return the optimistic read
+   */
+  public OptimisticReadResource tryOptimisticRead(K key) {
+    Preconditions.checkNotNull(key, "key can not be null");
+    Resource<K> resource = mPool.get(key);
+    if (!mStampedLocks || resource == null) {
+      return OptimisticReadResource.INVALID;
+    }
+    StampedReadWriteLock lock = (StampedReadWriteLock) resource.mLock;
+    long stamp = lock.tryOptimisticRead();
+    if (stamp == 0L) {
+      return OptimisticReadResource.INVALID;
+    }
+    return new OptimisticReadResource(lock, stamp);
+  }
+
+  /**
+   * Takes the lock if it is available right now. Unlike {@link Lock#tryLock()}, this honours the
+   * fairness of a fair lock and does not barge ahead of the queued threads.
+   *
+   * @return whether the lock was taken, false also if the thread is interrupted
+   */
+  private static boolean tryLockNow(Lock lock) {
+    try {
+      return lock.tryLock(0, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      // Left to the blocking acquisition, which ignores interrupts like lock() does.
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static Lock modeLock(ReadWriteLock lock, LockMode mode) {
     switch (mode) {
       case READ:
-        innerLock = lock.readLock();
-        break;
+        return lock.readLock();
       case WRITE:
-        innerLock = lock.writeLock();
-        break;
+        return lock.writeLock();
       default:
         throw new IllegalStateException("Unknown lock mode: " + mode);
     }
-    if (!innerLock.tryLock()) {
-      return Optional.empty();
-    }
-    return Optional.of(new RefCountLockResource(lock, mode, false, resource.mRefCount, false));
   }
 
+  /**
+   * Takes a reference on the entry of the key without locking it, the entry is not evicted until
+   * {@link Resource#release()} is called. Used by callers which manage many locks at once and do
+   * not want a {@link LockResource} per lock.
+   *
+   * @param key the key to lock
+   * @return the referenced entry
+   */
+  Resource<K> acquireResource(K key) {
+    return getResource(key);
+  }
+
+  /**
+   * Drops a reference taken by {@link #acquireResource}, after its lock has been released.
+   *
+   * @param resource the referenced entry
+   */
+  void releaseResource(Resource<K> resource) {
+    resource.release();
+    drainWaiters(resource);
+  }
+
+  /**
+   * @param key the key
+   * @return the lock of the key, a new unpooled lock if the key is not in the pool
+   * @throws IllegalStateException if the pool was created with {@link #withStampedLocks}
+   */
   public ReentrantReadWriteLock getRawReadWriteLock(K key) {
-    return mPool.getOrDefault(key, new Resource(new ReentrantReadWriteLock())).mLock;
+    Preconditions.checkState(!mStampedLocks, "The locks of %s are not reentrant", this);
+    Resource<K> resource = mPool.get(key);
+    return resource == null ? new ReentrantReadWriteLock()
+        : (ReentrantReadWriteLock) resource.mLock;
   }
 
-  private Resource getResource(K key) {
+  private Resource<K> getResource(K key) {
     Preconditions.checkNotNull(key, "key can not be null");
-    Resource resource = mPool.compute(key, (k, v) -> {
+    Resource<K> resource = mPool.get(key);
+    if (resource != null && resource.tryReference()) {
+      // Referenced without the compute, the evictor can no longer claim it.
+      resource.mIsAccessed = true;
+      mEvictionPolicy.onAccess(resource);
+      return resource;
+    }
+    resource = mPool.compute(key, (k, v) -> {
       if (v != null && v.mRefCount.incrementAndGet() > 0) {
         // If the entry is to be removed, ref count will be INT_MIN, so incrementAndGet will < 0.
         v.mIsAccessed = true;
+        mEvictionPolicy.onAccess(v);
         return v;
       }
-      return new Resource(mDefaultLoader.apply(k));
+      Resource<K> created = new Resource<>(k, mDefaultLoader.apply(k));
+      mEvictionPolicy.onInsert(created);
+      return created;
     });
     if (mPool.size() > mHighWatermark) {
       if (mEvictLock.tryLock()) {
@@ -124,6 +471,7 @@ public class LockPool<K> implements Closeable {
         .add("lowWatermark", mLowWatermark)
         .add("highWatermark", mHighWatermark)
         .add("size", mPool.size())
+        .add("evictionPolicy", mEvictionPolicy)
         .toString();
   }
 
@@ -136,22 +484,25 @@ public class LockPool<K> implements Closeable {
     return mPool.size();
   }
 
+  /**
+   * @return the cost of the evictions done so far
+   */
+  public EvictionStats getEvictionStats() {
+    return mEvictionStats;
+  }
+
   @VisibleForTesting
-  public Map<K, ReentrantReadWriteLock> getEntryMap() {
-    Map<K, ReentrantReadWriteLock> entries = new HashMap<>();
+  public Map<K, ReadWriteLock> getEntryMap() {
+    Map<K, ReadWriteLock> entries = new HashMap<>();
     mPool.forEach((key, value) -> entries.put(key, value.mLock));
     return entries;
   }
 
-  private final class Evictor implements Runnable {
+  private final class Evictor implements Runnable, EvictionPolicy.Target<K> {
     private static final long OVER_HIGH_WATERMARK_LOG_INTERVAL = Constants.MINUTE_MS;
     private static final int EVICTION_MAX_AWAIT_TIME = 30 * Constants.SECOND_MS;
     private long mLastSizeWarningTime = 0;
-    private Iterator<Map.Entry<K, Resource>> mIterator;
-
-    public Evictor() {
-      mIterator = mPool.entrySet().iterator();
-    }
+    private long mAttempts;
 
     @Override
     public void run() {
@@ -167,62 +518,448 @@ public class LockPool<K> implements Closeable {
     /**
      * Blocks until the size of the pool exceeds the high watermark, evicts entries with zero
      * references until pool size decreases below the low watermark or the whole pool is scanned.
+     *
+     * The eviction runs without holding {@link #mEvictLock}, and in incremental mode it is split
+     * into slices of at most {@link #mEvictionBatchSize} entries or
+     * {@link #mEvictionSliceTimeNanos}, yielding the CPU between slices.
      */
     private void awaitAndEvict() throws InterruptedException {
       try (LockResource l = new LockResource(mEvictLock)) {
         while (mPool.size() <= mHighWatermark) {
           mOverHighWatermark.await(EVICTION_MAX_AWAIT_TIME, TimeUnit.MILLISECONDS);
         }
-        int numToEvict = mPool.size() - mLowWatermark;
-        // The first round of scan uses the mIterator left from last eviction.
-        // Then scan the pool from a new iterator for at most two round:
-        // first round to mark candidate.mIsAccessed as false,
-        // second round to remove the candidate from the pool.
-        int roundToScan = 3;
-        while (numToEvict > 0 && roundToScan > 0) {
-          if (!mIterator.hasNext()) {
-            mIterator = mPool.entrySet().iterator();
-            roundToScan--;
+      }
+      int numToEvict = mPool.size() - mLowWatermark;
+      long startNanos = System.nanoTime();
+      mAttempts = 0;
+      mEvictionPolicy.startPass();
+      int evicted = 0;
+      while (evicted < numToEvict) {
+        int batch = Math.min(numToEvict - evicted, mEvictionBatchSize);
+        long sliceStartNanos = System.nanoTime();
+        long deadlineNanos = mEvictionSliceTimeNanos > 0
+            ? sliceStartNanos + mEvictionSliceTimeNanos : EvictionPolicy.NO_DEADLINE;
+        int sliceEvicted = mEvictionPolicy.evict(batch, deadlineNanos, this);
+        mEvictionStats.recordSlice(System.nanoTime() - sliceStartNanos);
+        evicted += sliceEvicted;
+        if (sliceEvicted < batch && !EvictionPolicy.isExpired(deadlineNanos)) {
+          // The policy has no more candidates in this pass.
+          break;
+        }
+        if (evicted < numToEvict) {
+          if (Thread.interrupted()) {
+            throw new InterruptedException();
           }
+          Thread.yield();
+        }
+      }
+      long passNanos = System.nanoTime() - startNanos;
+      mEvictionStats.recordPass(mAttempts, evicted, passNanos);
+      if (mMetrics != null) {
+        mEvictionCounter.inc(evicted);
+        mEvictionTimer.update(passNanos, TimeUnit.NANOSECONDS);
+      }
+      LOG.debug("LockPool evicted {} of {} entries with policy {} in {}us",
+          evicted, numToEvict, mEvictionPolicy, TimeUnit.NANOSECONDS.toMicros(passNanos));
 
-          Map.Entry<K, Resource> candidateMapEntry = mIterator.next();
-          Resource candidate = candidateMapEntry.getValue();
-          if (candidate.mIsAccessed) {
-            candidate.mIsAccessed = false;
-          } else {
-            if (candidate.mRefCount.compareAndSet(0, Integer.MIN_VALUE)) {
-              mIterator.remove();
-              numToEvict--;
-            }
-          }
+      if (mPool.size() >= mHighWatermark) {
+        if (System.currentTimeMillis() - mLastSizeWarningTime
+            > OVER_HIGH_WATERMARK_LOG_INTERVAL) {
+          LOG.warn("LockPool size grows over high watermark: "
+                  + "pool size = {}, low watermark = {}, high watermark = {}",
+              mPool.size(), mLowWatermark, mHighWatermark);
+          mLastSizeWarningTime = System.currentTimeMillis();
+        }
+      }
+    }
+
+    @Override
+    public Iterator<Resource<K>> iterator() {
+      return mPool.values().iterator();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean tryEvict(EvictionPolicy.Entry<K> entry) {
+      mAttempts++;
+      Resource<K> candidate = (Resource<K>) entry;
+      if (candidate.mRefCount.compareAndSet(0, Integer.MIN_VALUE)) {
+        if (candidate.mLock instanceof StampedReadWriteLock) {
+          // Writers will lock the lock replacing this one, fail pending optimistic reads.
+          ((StampedReadWriteLock) candidate.mLock).retire();
         }
+        // The key may already be mapped to a new resource if a getter saw the INT_MIN ref count.
+        mPool.remove(candidate.mKey, candidate);
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public int size() {
+      return mPool.size();
+    }
+  }
+
+  /**
+   * A lock resource handed out by the pool, serves the queued asynchronous requests of its key
+   * once released.
+   */
+  private final class PooledLockResource extends RefCountLockResource {
+    private final Resource<K> mResource;
+    @Nullable
+    private final LockWatchdog.Hold mHold;
+
+    private PooledLockResource(Resource<K> resource, LockMode mode, boolean acquireLock,
+                               boolean useTryLock) {
+      this(resource, mode, acquireLock, useTryLock, false);
+    }
+
+    /**
+     * @param async whether the lock was taken for an asynchronous request, the resource may
+     *              then be handed to and closed by any thread, so the watchdog records the hold
+     *              without an owner
+     */
+    private PooledLockResource(Resource<K> resource, LockMode mode, boolean acquireLock,
+                               boolean useTryLock, boolean async) {
+      super(resource.mLock, mode, acquireLock, resource.mRefCount, useTryLock, mMetrics);
+      mResource = resource;
+      mHold = mWatchdog == null ? null : mWatchdog.onAcquired(resource.mLock, resource.mKey,
+          mode, async ? null : Thread.currentThread());
+    }
+
+    @Override
+    public void close() {
+      if (mHold != null) {
+        mWatchdog.onReleased(mHold);
+      }
+      super.close();
+      drainWaiters(mResource);
+    }
+  }
 
-        if (mPool.size() >= mHighWatermark) {
-          if (System.currentTimeMillis() - mLastSizeWarningTime
-              > OVER_HIGH_WATERMARK_LOG_INTERVAL) {
-            LOG.warn("LockPool size grows over high watermark: "
-                    + "pool size = {}, low watermark = {}, high watermark = {}",
-                mPool.size(), mLowWatermark, mHighWatermark);
-            mLastSizeWarningTime = System.currentTimeMillis();
+  /**
+   * A set of keys locked together by {@link #getAll}. Closing it releases the locks in the
+   * reverse order.
+   */
+  @NotThreadSafe
+  public final class LockedKeys implements Closeable {
+    private final LockMode mMode;
+    private final List<Resource<K>> mResources;
+    @Nullable
+    private final List<LockWatchdog.Hold> mHolds;
+    private boolean mClosed;
+
+    private LockedKeys(LockMode mode, int expectedSize) {
+      mMode = mode;
+      mResources = new ArrayList<>(expectedSize);
+      mHolds = mWatchdog == null ? null : new ArrayList<>(expectedSize);
+    }
+
+    private void add(K key) {
+      Resource<K> resource = getResource(key);
+      Lock lock = modeLock(resource.mLock, mMode);
+      try {
+        if (mWatchdog == null) {
+          lock.lock();
+        } else if (!tryLockNow(lock)) {
+          mWatchdog.startWaiting(resource.mLock, key, mMode);
+          try {
+            lock.lock();
+          } finally {
+            mWatchdog.stopWaiting();
           }
         }
+      } catch (RuntimeException | Error e) {
+        resource.release();
+        throw e;
+      }
+      mResources.add(resource);
+      if (mHolds != null) {
+        mHolds.add(mWatchdog.onAcquired(resource.mLock, key, mMode));
+      }
+    }
+
+    /**
+     * @return the number of distinct keys locked
+     */
+    public int size() {
+      return mResources.size();
+    }
+
+    /**
+     * @return the mode the keys are locked in
+     */
+    public LockMode getMode() {
+      return mMode;
+    }
+
+    @Override
+    public void close() {
+      Preconditions.checkState(!mClosed, "Locked keys are already closed");
+      mClosed = true;
+      for (int i = mResources.size() - 1; i >= 0; i--) {
+        Resource<K> resource = mResources.get(i);
+        if (mHolds != null) {
+          mWatchdog.onReleased(mHolds.get(i));
+        }
+        modeLock(resource.mLock, mMode).unlock();
+        releaseResource(resource);
       }
     }
   }
 
+  /**
+   * An asynchronous lock request queued on an entry.
+   */
+  private static final class Waiter {
+    private final LockMode mMode;
+    private final CompletableFuture<RWLockResource> mFuture;
+
+    private Waiter(LockMode mode, CompletableFuture<RWLockResource> future) {
+      mMode = mode;
+      mFuture = future;
+    }
+  }
+
+  /**
+   * Options to initialize a lock pool. The type of the locks is chosen by the constructor: the
+   * pools of {@link #withStampedLocks} have non-reentrant locks, a thread locking a key it
+   * already holds deadlocks.
+   */
+  public static final class Options {
+    /**
+     * The policy choosing which entries to evict.
+     */
+    private EvictionPolicyType mEvictionPolicyType = EvictionPolicyType.CLOCK;
+
+    /**
+     * The max number of entries evicted in one slice of an eviction pass.
+     */
+    private int mEvictionBatchSize = Integer.MAX_VALUE;
+
+    /**
+     * The max time spent in one slice of an eviction pass, 0 for no limit.
+     */
+    private long mEvictionSliceTimeUs = 0;
+
+    /**
+     * The name tagged on the metrics of the pool, null to not record metrics.
+     */
+    @Nullable
+    private String mMetricsName = null;
+
+    /**
+     * Lock acquisitions are recorded once in every this many acquisitions.
+     */
+    private int mMetricsSamplingInterval = 1;
+
+    /**
+     * The watchdog tracking the holders and waiters of the locks, null to not track them.
+     */
+    @Nullable
+    private LockWatchdog mWatchdog = null;
+
+    /**
+     * @return the eviction policy type
+     */
+    public EvictionPolicyType getEvictionPolicyType() {
+      return mEvictionPolicyType;
+    }
+
+    /**
+     * @param evictionPolicyType the eviction policy type
+     * @return the updated object
+     */
+    public Options setEvictionPolicyType(EvictionPolicyType evictionPolicyType) {
+      mEvictionPolicyType = Preconditions.checkNotNull(evictionPolicyType, "evictionPolicyType");
+      return this;
+    }
+
+    /**
+     * @return the max number of entries evicted in one slice
+     */
+    public int getEvictionBatchSize() {
+      return mEvictionBatchSize;
+    }
+
+    /**
+     * @return the max time in microseconds spent in one slice, 0 for no limit
+     */
+    public long getEvictionSliceTimeUs() {
+      return mEvictionSliceTimeUs;
+    }
+
+    /**
+     * Bounds the number of entries evicted before the evictor yields. Together with
+     * {@link #setEvictionSliceTimeUs(long)} this makes eviction incremental.
+     *
+     * @param evictionBatchSize the max number of entries evicted in one slice
+     * @return the updated object
+     */
+    public Options setEvictionBatchSize(int evictionBatchSize) {
+      Preconditions.checkArgument(evictionBatchSize > 0);
+      mEvictionBatchSize = evictionBatchSize;
+      return this;
+    }
+
+    /**
+     * Bounds the time spent evicting before the evictor yields.
+     *
+     * @param evictionSliceTimeUs the max time in microseconds spent in one slice, 0 for no limit
+     * @return the updated object
+     */
+    public Options setEvictionSliceTimeUs(long evictionSliceTimeUs) {
+      Preconditions.checkArgument(evictionSliceTimeUs >= 0);
+      mEvictionSliceTimeUs = evictionSliceTimeUs;
+      return this;
+    }
+
+    /**
+     * @return the name tagged on the metrics, null if metrics are disabled
+     */
+    @Nullable
+    public String getMetricsName() {
+      return mMetricsName;
+    }
+
+    /**
+     * @return the sampling interval of lock acquisition metrics
+     */
+    public int getMetricsSamplingInterval() {
+      return mMetricsSamplingInterval;
+    }
+
+    /**
+     * Enables the lock wait time, hold time, spin, pool size and eviction metrics of the pool.
+     * Pools recording metrics at the same time must use different names.
+     *
+     * @param metricsName the name tagged on the metrics, null to disable metrics
+     * @return the updated object
+     */
+    public Options setMetricsName(@Nullable String metricsName) {
+      mMetricsName = metricsName;
+      return this;
+    }
+
+    /**
+     * @param metricsSamplingInterval records one in every this many lock acquisitions
+     * @return the updated object
+     */
+    public Options setMetricsSamplingInterval(int metricsSamplingInterval) {
+      Preconditions.checkArgument(metricsSamplingInterval > 0);
+      mMetricsSamplingInterval = metricsSamplingInterval;
+      return this;
+    }
+
+    /**
+     * @return the watchdog tracking the locks, null if they are not tracked
+     */
+    @Nullable
+    public LockWatchdog getWatchdog() {
+      return mWatchdog;
+    }
+
+    /**
+     * Makes the pool record the holders and blocked waiters of its locks in the watchdog, at the
+     * cost of an allocation and two set updates per acquisition. A watchdog may be shared by
+     * several pools, it is not closed with them. Locks taken through
+     * {@link LockPool#getRawReadWriteLock} or {@link PathLockManager} are not tracked.
+     *
+     * @param watchdog the watchdog, null to not track the locks
+     * @return the updated object
+     */
+    public Options setWatchdog(@Nullable LockWatchdog watchdog) {
+      mWatchdog = watchdog;
+      return this;
+    }
+
+    private Options() {
+    }
+
+    /**
+     * @return the default option
+     */
+    public static Options defaultOptions() {
+      return new Options();
+    }
+  }
+
   /**
    * Resource containing the lock and other information to be stored in the pool.
    */
-  private static final class Resource {
-    private final ReentrantReadWriteLock mLock;
-    //mIsAccessed这个是做什么的？
+  static final class Resource<K> implements EvictionPolicy.Entry<K> {
+    private final K mKey;
+    private final ReadWriteLock mLock;
+    // Set on every access, cleared by CLOCK eviction to give accessed entries a second chance.
     private volatile boolean mIsAccessed;
     private AtomicInteger mRefCount;
+    // Queued asynchronous lock requests, created on first use. Each holds a reference.
+    @Nullable
+    private volatile ConcurrentLinkedQueue<Waiter> mWaiters;
 
-    private Resource(ReentrantReadWriteLock lock) {
+    private Resource(K key, ReadWriteLock lock) {
+      mKey = key;
       mLock = lock;
       mIsAccessed = false;
       mRefCount = new AtomicInteger(1);
     }
+
+    @Override
+    public K getKey() {
+      return mKey;
+    }
+
+    @Override
+    public boolean isAccessed() {
+      return mIsAccessed;
+    }
+
+    @Override
+    public void clearAccessed() {
+      mIsAccessed = false;
+    }
+
+    ReadWriteLock getLock() {
+      return mLock;
+    }
+
+    private ConcurrentLinkedQueue<Waiter> waiters() {
+      ConcurrentLinkedQueue<Waiter> waiters = mWaiters;
+      if (waiters == null) {
+        synchronized (this) {
+          waiters = mWaiters;
+          if (waiters == null) {
+            waiters = new ConcurrentLinkedQueue<>();
+            mWaiters = waiters;
+          }
+        }
+      }
+      return waiters;
+    }
+
+    /**
+     * Takes a reference unless the entry is being evicted.
+     *
+     * @return whether the reference was taken
+     */
+    private boolean tryReference() {
+      for (;;) {
+        int refCount = mRefCount.get();
+        if (refCount < 0) {
+          return false;
+        }
+        if (mRefCount.compareAndSet(refCount, refCount + 1)) {
+          return true;
+        }
+      }
+    }
+
+    /**
+     * Drops the reference taken by {@link LockPool#acquireResource}.
+     */
+    void release() {
+      mRefCount.decrementAndGet();
+    }
   }
 }
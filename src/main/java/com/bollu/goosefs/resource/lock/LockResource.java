@@ -1,27 +1,42 @@
 package com.bollu.goosefs.resource.lock;
 
+import com.bollu.goosefs.resource.CustomResourceLeakDetector;
 import com.bollu.goosefs.resource.CustomResourceLeakDetectorFactory;
 import com.google.common.annotations.VisibleForTesting;
-import io.netty.util.ResourceLeakDetector;
 import io.netty.util.ResourceLeakTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.Closeable;
+import java.util.Optional;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.LockSupport;
 
 public class LockResource implements Closeable {
   private static final Logger LOG = LoggerFactory.getLogger(LockResource.class);
 
-  private static final ResourceLeakDetector<LockResource> DETECTOR =
-      CustomResourceLeakDetectorFactory.instance().newResourceLeakDetector(LockResource.class);
+  private static final CustomResourceLeakDetector<LockResource> DETECTOR =
+      CustomResourceLeakDetectorFactory.instance().newSampledDetector(LockResource.class);
+  /** The park between two failed {@link Lock#tryLock()}s of the {@code useTryLock} mode. */
+  private static final long TRY_LOCK_PARK_NANOS = 10_000;
+  /**
+   * The first park between two failed {@link Lock#tryLock()}s of {@link #acquireBefore}, doubled
+   * after every park.
+   */
+  private static final long MIN_PARK_NANOS = 1_000;
+  /** The longest park between two failed {@link Lock#tryLock()}s of {@link #acquireBefore}. */
+  private static final long MAX_PARK_NANOS = 1_000_000;
 
   protected Lock mLock;
   private final Runnable mCloseAction;
   @Nullable
-  private ResourceLeakTracker<LockResource> mTracker = DETECTOR.track(this);
+  private final ResourceLeakTracker<LockResource> mTracker;
+  @Nullable
+  private final LockMetrics mMetrics;
+  /** Whether this acquisition is recorded by {@link #mMetrics}. */
+  private boolean mSampled;
+  private long mAcquiredNanos;
 
   public LockResource(Lock lock) {
     this(lock, true, false);
@@ -33,20 +48,171 @@ public class LockResource implements Closeable {
 
   public LockResource(Lock lock, boolean acquireLock, boolean useTryLock,
                       @Nullable Runnable closeAction) {
+    this(lock, acquireLock, useTryLock, closeAction, true, null);
+  }
+
+  /**
+   * @param lock the lock to acquire
+   * @param acquireLock whether to lock the lock
+   * @param useTryLock whether to spin on {@link Lock#tryLock()} instead of {@link Lock#lock()}
+   * @param closeAction the action to run before unlocking, may be null
+   * @param metrics the metrics recording this acquisition, null to not record it
+   */
+  public LockResource(Lock lock, boolean acquireLock, boolean useTryLock,
+                      @Nullable Runnable closeAction, @Nullable LockMetrics metrics) {
+    this(lock, acquireLock, useTryLock, closeAction, true, metrics);
+  }
+
+  /**
+   * @param lock the lock to acquire
+   * @param acquireLock whether to lock the lock
+   * @param useTryLock whether to spin on {@link Lock#tryLock()} instead of {@link Lock#lock()}
+   * @param closeAction the action to run before unlocking, may be null
+   * @param trackLeak whether to register this resource with the leak detector, long-lived
+   *                  resources which are reused across acquisitions should pass false
+   */
+  protected LockResource(Lock lock, boolean acquireLock, boolean useTryLock,
+                         @Nullable Runnable closeAction, boolean trackLeak) {
+    this(lock, acquireLock, useTryLock, closeAction, trackLeak, null);
+  }
+
+  /**
+   * @param lock the lock to acquire
+   * @param acquireLock whether to lock the lock, if false the caller has just locked it
+   * @param useTryLock whether to spin on {@link Lock#tryLock()} instead of {@link Lock#lock()}
+   * @param closeAction the action to run before unlocking, may be null
+   * @param trackLeak whether to register this resource with the leak detector
+   * @param metrics the metrics recording this acquisition, null to not record it
+   */
+  protected LockResource(Lock lock, boolean acquireLock, boolean useTryLock,
+                         @Nullable Runnable closeAction, boolean trackLeak,
+                         @Nullable LockMetrics metrics) {
     mLock = lock;
     mCloseAction = closeAction;
+    mTracker = trackLeak ? DETECTOR.trackSampled(this) : null;
+    mMetrics = metrics;
+    if (metrics != null) {
+      acquireSampled(acquireLock, useTryLock);
+    } else if (acquireLock) {
+      acquire(mLock, useTryLock);
+    }
+  }
+
+  private void acquireSampled(boolean acquireLock, boolean useTryLock) {
+    mSampled = mMetrics.shouldSample();
+    if (!mSampled) {
+      if (acquireLock) {
+        acquire(mLock, useTryLock);
+      }
+      return;
+    }
+    long startNanos = System.nanoTime();
     if (acquireLock) {
-      if (useTryLock) {
-        while (!mLock.tryLock()) { // returns immediately
-          // The reason we don't use #tryLock(int, TimeUnit) here is because we found there is a bug
-          // somewhere in the internal accounting of the ReentrantRWLock that, even though all
-          // threads had released the lock, that a final thread would never be able to acquire it.
-          LockSupport.parkNanos(10000);
-        }
-      } else {
-        mLock.lock();
+      int spins = acquire(mLock, useTryLock);
+      mAcquiredNanos = System.nanoTime();
+      mMetrics.recordWait(mAcquiredNanos - startNanos, spins);
+    } else {
+      mAcquiredNanos = startNanos;
+    }
+  }
+
+  /**
+   * Acquires the given lock.
+   *
+   * @param lock the lock to acquire
+   * @param useTryLock whether to spin on {@link Lock#tryLock()} instead of {@link Lock#lock()}
+   * @return the number of times the thread parked before getting the lock
+   */
+  protected static int acquire(Lock lock, boolean useTryLock) {
+    int spins = 0;
+    if (useTryLock) {
+      while (!lock.tryLock()) { // returns immediately
+        // The reason we don't use #tryLock(int, TimeUnit) here is because we found there is a bug
+        // somewhere in the internal accounting of the ReentrantRWLock that, even though all
+        // threads had released the lock, that a final thread would never be able to acquire it.
+        LockSupport.parkNanos(TRY_LOCK_PARK_NANOS);
+        spins++;
+      }
+    } else {
+      lock.lock();
+    }
+    return spins;
+  }
+
+  /**
+   * Acquires the given lock unless the deadline passes first. Like the {@code useTryLock} mode
+   * of {@link #acquire(Lock, boolean)}, this retries {@link Lock#tryLock()}, but parks for
+   * exponentially longer between attempts and gives up at the deadline.
+   *
+   * @param lock the lock to acquire
+   * @param deadlineNanos the {@link System#nanoTime()} after which to give up
+   * @return the number of times the thread parked before getting the lock, -1 if the deadline
+   *         passed before the lock could be acquired
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  protected static int acquireBefore(Lock lock, long deadlineNanos) throws InterruptedException {
+    int spins = 0;
+    long parkNanos = MIN_PARK_NANOS;
+    while (!lock.tryLock()) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      long remainingNanos = deadlineNanos - System.nanoTime();
+      if (remainingNanos <= 0) {
+        return -1;
       }
+      LockSupport.parkNanos(Math.min(parkNanos, remainingNanos));
+      parkNanos = Math.min(parkNanos << 1, MAX_PARK_NANOS);
+      spins++;
     }
+    return spins;
+  }
+
+  /**
+   * Records the wait of an acquisition done before this resource was created with
+   * {@code acquireLock} false, if the acquisition is sampled.
+   *
+   * @param startNanos the {@link System#nanoTime()} at which the caller started waiting
+   * @param spins the number of times the caller parked before getting the lock
+   */
+  void recordWait(long startNanos, int spins) {
+    if (mSampled) {
+      mMetrics.recordWait(mAcquiredNanos - startNanos, spins);
+    }
+  }
+
+  /**
+   * Acquires the given lock unless the deadline passes first.
+   *
+   * @param lock the lock to acquire
+   * @param deadlineNanos the {@link System#nanoTime()} after which to give up
+   * @return the resource holding the lock, empty if the deadline passed
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public static Optional<LockResource> tryLock(Lock lock, long deadlineNanos)
+      throws InterruptedException {
+    return tryLock(lock, deadlineNanos, null);
+  }
+
+  /**
+   * Acquires the given lock unless the deadline passes first.
+   *
+   * @param lock the lock to acquire
+   * @param deadlineNanos the {@link System#nanoTime()} after which to give up
+   * @param metrics the metrics recording this acquisition, null to not record it
+   * @return the resource holding the lock, empty if the deadline passed
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public static Optional<LockResource> tryLock(Lock lock, long deadlineNanos,
+      @Nullable LockMetrics metrics) throws InterruptedException {
+    long startNanos = System.nanoTime();
+    int spins = acquireBefore(lock, deadlineNanos);
+    if (spins < 0) {
+      return Optional.empty();
+    }
+    LockResource resource = new LockResource(lock, false, false, null, metrics);
+    resource.recordWait(startNanos, spins);
+    return Optional.of(resource);
   }
 
   @VisibleForTesting
@@ -62,6 +228,9 @@ public class LockResource implements Closeable {
     if (mTracker != null) {
       mTracker.close(this);
     }
+    if (mMetrics != null && mSampled) {
+      mMetrics.recordHold(System.nanoTime() - mAcquiredNanos);
+    }
     mLock.unlock();
   }
 }
@@ -0,0 +1,493 @@
+package com.bollu.goosefs.resource.lock;
+
+import com.bollu.goosefs.common.utils.FormatUtils;
+import com.bollu.goosefs.common.utils.ThreadFactoryUtils;
+import com.bollu.goosefs.common.utils.ThreadUtils;
+import com.bollu.goosefs.prometheus.metrics.Metric;
+import com.bollu.goosefs.prometheus.metrics.MetricKey;
+import com.bollu.goosefs.prometheus.metrics.MetricsSystem;
+import com.codahale.metrics.Counter;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the locks handed out by the {@link LockPool}s it is set on through
+ * {@link LockPool.Options#setWatchdog}. The pools record which thread holds each lock since when,
+ * and which thread is blocked on which lock. Every check interval the watchdog builds the wait-for
+ * graph from these records and reports the deadlock cycles and the holds longer than the
+ * threshold, through metrics, the log and {@link #getLastReport()}.
+ *
+ * The records are read while the pools keep running, so a check may see a transient cycle which
+ * never was one. A cycle is only reported once two consecutive checks have seen it.
+ */
+@ThreadSafe
+public class LockWatchdog implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(LockWatchdog.class);
+  private static final String THREAD_NAME = "LockWatchdog-%s";
+  /** Reported as the holder of a lock granted asynchronously. */
+  private static final String ASYNC_HOLDER = "<async>";
+
+  private final String mName;
+  private final long mLongHoldThresholdNanos;
+  private final int mCallSiteSamplingInterval;
+  private final Set<Hold> mHolds = ConcurrentHashMap.newKeySet();
+  private final Map<Thread, Wait> mWaits = new ConcurrentHashMap<>();
+  private final Counter mDeadlocks;
+  private final ScheduledExecutorService mExecutor;
+  /** The cycles seen by the previous check, reported if the next check sees them again. */
+  private Set<Set<Thread>> mPreviousCycles = Collections.emptySet();
+  private volatile Report mLastReport;
+
+  /**
+   * @param name the name tagged on the metrics of the watchdog
+   * @param options the options
+   */
+  public LockWatchdog(String name, Options options) {
+    mName = Preconditions.checkNotNull(name, "name");
+    mLongHoldThresholdNanos = TimeUnit.MILLISECONDS.toNanos(options.getLongHoldThresholdMs());
+    mCallSiteSamplingInterval = options.getCallSiteSamplingInterval();
+    mLastReport = new Report(System.currentTimeMillis(), 0, 0,
+        Collections.emptyList(), Collections.emptyList());
+    mDeadlocks = MetricsSystem.counter(getMetricName(MetricKey.LOCK_DEADLOCKS));
+    MetricsSystem.registerGaugeIfAbsent(getMetricName(MetricKey.LOCK_LONG_HOLDS),
+        () -> mLastReport.mLongHolds.size());
+    mExecutor = Executors.newSingleThreadScheduledExecutor(
+        ThreadFactoryUtils.build(String.format(THREAD_NAME, name), true));
+    mExecutor.scheduleWithFixedDelay(this::checkQuietly, options.getCheckIntervalMs(),
+        options.getCheckIntervalMs(), TimeUnit.MILLISECONDS);
+  }
+
+  private String getMetricName(MetricKey key) {
+    return Metric.getMetricNameWithTags(key.getName(), LockMetrics.TAG_LOCK, mName);
+  }
+
+  /**
+   * Records that the current thread is about to block on the lock.
+   */
+  void startWaiting(Object lock, Object key, LockMode mode) {
+    mWaits.put(Thread.currentThread(), new Wait(lock, key, mode));
+  }
+
+  /**
+   * Records that the current thread no longer blocks on a lock.
+   */
+  void stopWaiting() {
+    mWaits.remove(Thread.currentThread());
+  }
+
+  /**
+   * Records that the current thread acquired the lock.
+   *
+   * @return the hold, to pass to {@link #onReleased(Hold)}
+   */
+  Hold onAcquired(Object lock, Object key, LockMode mode) {
+    return onAcquired(lock, key, mode, Thread.currentThread());
+  }
+
+  /**
+   * Records that the lock was acquired.
+   *
+   * @param owner the thread holding the lock, null for a lock granted asynchronously which any
+   *              thread may release, such a hold is reported but never part of a deadlock
+   * @return the hold, to pass to {@link #onReleased(Hold)}
+   */
+  Hold onAcquired(Object lock, Object key, LockMode mode, @Nullable Thread owner) {
+    Throwable callSite = null;
+    if (mCallSiteSamplingInterval > 0
+        && ThreadLocalRandom.current().nextInt(mCallSiteSamplingInterval) == 0) {
+      callSite = new Throwable("Lock acquired here");
+    }
+    Hold hold = new Hold(lock, key, mode, owner, callSite);
+    mHolds.add(hold);
+    return hold;
+  }
+
+  /**
+   * Records that the hold ended.
+   */
+  void onReleased(Hold hold) {
+    mHolds.remove(hold);
+  }
+
+  /**
+   * @return the report of the last check
+   */
+  public Report getLastReport() {
+    return mLastReport;
+  }
+
+  private void checkQuietly() {
+    try {
+      check();
+    } catch (RuntimeException e) {
+      LOG.warn("Lock watchdog {} check failed", mName, e);
+    }
+  }
+
+  /**
+   * Builds the wait-for graph and looks for long holds and deadlock cycles.
+   *
+   * @return the new report
+   */
+  Report check() {
+    long nowNanos = System.nanoTime();
+    Map<Object, List<Hold>> holdsByLock = new IdentityHashMap<>();
+    List<Hold> longHolds = new ArrayList<>();
+    int numHolds = 0;
+    for (Hold hold : mHolds) {
+      numHolds++;
+      holdsByLock.computeIfAbsent(hold.mLock, k -> new ArrayList<>()).add(hold);
+      if (nowNanos - hold.mAcquiredNanos >= mLongHoldThresholdNanos) {
+        longHolds.add(hold);
+      }
+    }
+    // A blocked thread points at every thread holding the lock it waits for, including itself,
+    // e.g. when it asks for the write lock while holding the read lock.
+    Map<Thread, Wait> waits = new HashMap<>(mWaits);
+    Map<Thread, List<Thread>> waitFor = new HashMap<>();
+    for (Map.Entry<Thread, Wait> entry : waits.entrySet()) {
+      List<Hold> holders = holdsByLock.get(entry.getValue().mLock);
+      if (holders == null) {
+        continue;
+      }
+      List<Thread> edges = new ArrayList<>(holders.size());
+      for (Hold holder : holders) {
+        if (holder.mThread != null) {
+          edges.add(holder.mThread);
+        }
+      }
+      waitFor.put(entry.getKey(), edges);
+    }
+    Set<Set<Thread>> cycles = findCycles(waitFor);
+    List<List<Waiter>> deadlocks = new ArrayList<>();
+    for (Set<Thread> cycle : cycles) {
+      if (!mPreviousCycles.contains(cycle)) {
+        continue;
+      }
+      List<Waiter> waiters = new ArrayList<>(cycle.size());
+      for (Thread thread : cycle) {
+        waiters.add(new Waiter(thread, waits.get(thread)));
+      }
+      deadlocks.add(waiters);
+    }
+    mPreviousCycles = cycles;
+
+    for (Hold hold : longHolds) {
+      if (!hold.mReported) {
+        hold.mReported = true;
+        LOG.warn("Lock {} held in {} mode by {} for more than {}ms", hold.mKey, hold.mMode,
+            hold.getHolder(),
+            TimeUnit.NANOSECONDS.toMillis(mLongHoldThresholdNanos), hold.mCallSite);
+      }
+    }
+    if (!deadlocks.isEmpty()) {
+      mDeadlocks.inc(deadlocks.size());
+      for (List<Waiter> deadlock : deadlocks) {
+        LOG.error("Lock deadlock detected: {}", deadlock);
+      }
+    }
+    Report report = new Report(System.currentTimeMillis(), numHolds, waits.size(), longHolds,
+        deadlocks);
+    mLastReport = report;
+    return report;
+  }
+
+  /**
+   * @return the sets of threads forming a cycle in the graph, one entry per cycle
+   */
+  private static Set<Set<Thread>> findCycles(Map<Thread, List<Thread>> graph) {
+    Set<Set<Thread>> cycles = new HashSet<>();
+    Set<Thread> done = new HashSet<>();
+    List<Thread> path = new ArrayList<>();
+    for (Thread start : graph.keySet()) {
+      findCycles(graph, start, path, done, cycles);
+    }
+    return cycles;
+  }
+
+  private static void findCycles(Map<Thread, List<Thread>> graph, Thread thread,
+      List<Thread> path, Set<Thread> done, Set<Set<Thread>> cycles) {
+    int index = path.indexOf(thread);
+    if (index >= 0) {
+      cycles.add(new HashSet<>(path.subList(index, path.size())));
+      return;
+    }
+    if (done.contains(thread)) {
+      return;
+    }
+    List<Thread> edges = graph.get(thread);
+    if (edges != null) {
+      path.add(thread);
+      for (Thread next : edges) {
+        findCycles(graph, next, path, done, cycles);
+      }
+      path.remove(path.size() - 1);
+    }
+    done.add(thread);
+  }
+
+  @Override
+  public void close() {
+    mExecutor.shutdownNow();
+    MetricsSystem.METRIC_REGISTRY.remove(getMetricName(MetricKey.LOCK_LONG_HOLDS));
+  }
+
+  /**
+   * A lock held by a thread, or granted asynchronously.
+   */
+  static final class Hold {
+    private final Object mLock;
+    private final Object mKey;
+    private final LockMode mMode;
+    /** The holding thread, null for an asynchronous grant. */
+    @Nullable
+    private final Thread mThread;
+    private final long mAcquiredNanos;
+    private final long mAcquiredTimeMs;
+    @Nullable
+    private final Throwable mCallSite;
+    /** Whether the hold has been logged as long already, only accessed by the watchdog. */
+    private boolean mReported;
+
+    private Hold(Object lock, Object key, LockMode mode, @Nullable Thread thread,
+        @Nullable Throwable callSite) {
+      mLock = lock;
+      mKey = key;
+      mMode = mode;
+      mThread = thread;
+      mAcquiredNanos = System.nanoTime();
+      mAcquiredTimeMs = System.currentTimeMillis();
+      mCallSite = callSite;
+    }
+
+    private void appendJson(StringBuilder sb, long nowMs) {
+      sb.append('{');
+      FormatUtils.appendJsonField(sb, "key", String.valueOf(mKey)).append(',');
+      FormatUtils.appendJsonField(sb, "mode", mMode.name()).append(',');
+      FormatUtils.appendJsonField(sb, "thread", getHolder()).append(',');
+      sb.append("\"heldMs\":").append(nowMs - mAcquiredTimeMs);
+      if (mCallSite != null) {
+        sb.append(',');
+        FormatUtils.appendJsonField(sb, "callSite", Throwables.getStackTraceAsString(mCallSite));
+      }
+      sb.append('}');
+    }
+
+    private String getHolder() {
+      return mThread == null ? ASYNC_HOLDER : ThreadUtils.getThreadIdentifier(mThread);
+    }
+  }
+
+  /**
+   * A lock a thread is blocked on.
+   */
+  private static final class Wait {
+    private final Object mLock;
+    private final Object mKey;
+    private final LockMode mMode;
+
+    private Wait(Object lock, Object key, LockMode mode) {
+      mLock = lock;
+      mKey = key;
+      mMode = mode;
+    }
+  }
+
+  /**
+   * A thread of a deadlock cycle and the lock it waits for.
+   */
+  private static final class Waiter {
+    private final Thread mThread;
+    private final Wait mWait;
+
+    private Waiter(Thread thread, Wait wait) {
+      mThread = thread;
+      mWait = wait;
+    }
+
+    private void appendJson(StringBuilder sb) {
+      sb.append('{');
+      FormatUtils.appendJsonField(sb, "thread", ThreadUtils.getThreadIdentifier(mThread))
+          .append(',');
+      FormatUtils.appendJsonField(sb, "waitingFor", String.valueOf(mWait.mKey)).append(',');
+      FormatUtils.appendJsonField(sb, "mode", mWait.mMode.name());
+      sb.append('}');
+    }
+
+    @Override
+    public String toString() {
+      return ThreadUtils.getThreadIdentifier(mThread) + " waits for " + mWait.mKey
+          + " in " + mWait.mMode + " mode";
+    }
+  }
+
+  /**
+   * The result of one check.
+   */
+  public static final class Report {
+    private final long mTimeMs;
+    private final int mNumHolds;
+    private final int mNumWaiters;
+    private final List<Hold> mLongHolds;
+    private final List<List<Waiter>> mDeadlocks;
+
+    private Report(long timeMs, int numHolds, int numWaiters, List<Hold> longHolds,
+        List<List<Waiter>> deadlocks) {
+      mTimeMs = timeMs;
+      mNumHolds = numHolds;
+      mNumWaiters = numWaiters;
+      mLongHolds = longHolds;
+      mDeadlocks = deadlocks;
+    }
+
+    /**
+     * @return the number of holds longer than the threshold
+     */
+    public int getNumLongHolds() {
+      return mLongHolds.size();
+    }
+
+    /**
+     * @return the number of deadlock cycles
+     */
+    public int getNumDeadlocks() {
+      return mDeadlocks.size();
+    }
+
+    /**
+     * @return the report as a JSON object
+     */
+    public String toJson() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\"timeMs\":").append(mTimeMs)
+          .append(",\"holds\":").append(mNumHolds)
+          .append(",\"waiters\":").append(mNumWaiters)
+          .append(",\"longHolds\":[");
+      for (int i = 0; i < mLongHolds.size(); i++) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        mLongHolds.get(i).appendJson(sb, mTimeMs);
+      }
+      sb.append("],\"deadlocks\":[");
+      for (int i = 0; i < mDeadlocks.size(); i++) {
+        if (i > 0) {
+          sb.append(',');
+        }
+        sb.append('[');
+        List<Waiter> cycle = mDeadlocks.get(i);
+        for (int j = 0; j < cycle.size(); j++) {
+          if (j > 0) {
+            sb.append(',');
+          }
+          cycle.get(j).appendJson(sb);
+        }
+        sb.append(']');
+      }
+      return sb.append("]}").toString();
+    }
+  }
+
+  /**
+   * Options to initialize a lock watchdog.
+   */
+  public static final class Options {
+    /**
+     * Holds longer than this are reported.
+     */
+    private long mLongHoldThresholdMs = 10_000;
+
+    /**
+     * The time between two checks.
+     */
+    private long mCheckIntervalMs = 1_000;
+
+    /**
+     * The call site of one in every this many acquisitions is recorded, 0 to record none.
+     */
+    private int mCallSiteSamplingInterval = 0;
+
+    /**
+     * @return the threshold in milliseconds above which holds are reported
+     */
+    public long getLongHoldThresholdMs() {
+      return mLongHoldThresholdMs;
+    }
+
+    /**
+     * @param longHoldThresholdMs the threshold in milliseconds above which holds are reported
+     * @return the updated object
+     */
+    public Options setLongHoldThresholdMs(long longHoldThresholdMs) {
+      Preconditions.checkArgument(longHoldThresholdMs > 0);
+      mLongHoldThresholdMs = longHoldThresholdMs;
+      return this;
+    }
+
+    /**
+     * @return the time in milliseconds between two checks
+     */
+    public long getCheckIntervalMs() {
+      return mCheckIntervalMs;
+    }
+
+    /**
+     * @param checkIntervalMs the time in milliseconds between two checks
+     * @return the updated object
+     */
+    public Options setCheckIntervalMs(long checkIntervalMs) {
+      Preconditions.checkArgument(checkIntervalMs > 0);
+      mCheckIntervalMs = checkIntervalMs;
+      return this;
+    }
+
+    /**
+     * @return the call site sampling interval, 0 if call sites are not recorded
+     */
+    public int getCallSiteSamplingInterval() {
+      return mCallSiteSamplingInterval;
+    }
+
+    /**
+     * Recording a call site captures a stack trace, keep the interval large on hot pools.
+     *
+     * @param callSiteSamplingInterval records the call site of one in every this many
+     *                                 acquisitions, 0 to record none
+     * @return the updated object
+     */
+    public Options setCallSiteSamplingInterval(int callSiteSamplingInterval) {
+      Preconditions.checkArgument(callSiteSamplingInterval >= 0);
+      mCallSiteSamplingInterval = callSiteSamplingInterval;
+      return this;
+    }
+
+    private Options() {
+    }
+
+    /**
+     * @return the default option
+     */
+    public static Options defaultOptions() {
+      return new Options();
+    }
+  }
+}
@@ -0,0 +1,64 @@
+package com.bollu.goosefs.resource.lock;
+
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An optimistic read of a {@link StampedReadWriteLock}, returned by
+ * {@link LockPool#tryOptimisticRead}. Nothing is locked, so there is nothing to close: read the
+ * guarded state, then call {@link #validate()} and retry under a read lock if it fails.
+ *
+ * <pre>
+ *   OptimisticReadResource read = pool.tryOptimisticRead(key);
+ *   Value value = readState();
+ *   if (!read.validate()) {
+ *     try (LockResource r = pool.get(key, LockMode.READ)) {
+ *       value = readState();
+ *     }
+ *   }
+ * </pre>
+ */
+@ThreadSafe
+public final class OptimisticReadResource {
+  /** A read which never validates. */
+  static final OptimisticReadResource INVALID = new OptimisticReadResource(null, 0L);
+
+  @Nullable
+  private final StampedReadWriteLock mLock;
+  private final long mStamp;
+
+  /**
+   * @param lock the lock read optimistically
+   * @param stamp the stamp from {@link StampedReadWriteLock#tryOptimisticRead()}
+   */
+  OptimisticReadResource(@Nullable StampedReadWriteLock lock, long stamp) {
+    mLock = lock;
+    mStamp = stamp;
+  }
+
+  /**
+   * @return whether a stamp was obtained, if not the read will never validate and may be
+   *         skipped
+   */
+  public boolean isValidatable() {
+    return mStamp != 0L;
+  }
+
+  /**
+   * @return whether no writer has locked the key since the read started, in which case the
+   *         state read in between is consistent
+   */
+  public boolean validate() {
+    return mLock != null && mLock.validate(mStamp);
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("lock", mLock)
+        .add("stamp", mStamp)
+        .toString();
+  }
+}
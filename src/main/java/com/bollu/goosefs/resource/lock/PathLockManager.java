@@ -0,0 +1,191 @@
+package com.bollu.goosefs.resource.lock;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+
+/**
+ * Locks file-system style paths on top of a {@link LockPool} keyed by path prefix. Locking
+ * {@code /a/b/c} read locks {@code /}, {@code /a} and {@code /a/b} and locks {@code /a/b/c} in
+ * the requested mode, always from the root down, so two threads locking paths never deadlock.
+ *
+ * The whole lock list is returned as one {@link LockedPath}. Lock lists hold references to the
+ * pool entries directly instead of a {@link RefCountLockResource} per component, and are
+ * recycled through a small per-thread cache once closed. Each call returns a new handle owning
+ * the list until it is closed, so a stale second close fails instead of releasing the locks of
+ * whoever reused the list.
+ */
+@ThreadSafe
+public class PathLockManager {
+  private static final String SEPARATOR = "/";
+  private static final int MAX_CACHED_LOCK_LISTS_PER_THREAD = 8;
+
+  private final LockPool<String> mLockPool;
+  private final ThreadLocal<ArrayDeque<LockList>> mCache =
+      ThreadLocal.withInitial(ArrayDeque::new);
+
+  /**
+   * @param lockPool the pool of locks keyed by path prefix
+   */
+  public PathLockManager(LockPool<String> lockPool) {
+    mLockPool = Preconditions.checkNotNull(lockPool, "lockPool");
+  }
+
+  /**
+   * Locks every component of the path, ancestors in read mode and the last component in the
+   * given mode.
+   *
+   * @param path an absolute path, e.g. {@code /a/b/c}
+   * @param leafMode the mode to lock the last component in
+   * @return the locked path, which must be closed exactly once
+   */
+  public LockedPath lock(String path, LockMode leafMode) {
+    Preconditions.checkNotNull(path, "path");
+    Preconditions.checkNotNull(leafMode, "leafMode");
+    Preconditions.checkArgument(path.startsWith(SEPARATOR), "Path must be absolute: %s", path);
+    LockedPath lockedPath = new LockedPath(this, obtain());
+    try {
+      int end = path.length();
+      while (end > 1 && path.charAt(end - 1) == '/') {
+        end--;
+      }
+      if (end == 1) {
+        lockedPath.add(SEPARATOR, leafMode);
+        return lockedPath;
+      }
+      lockedPath.add(SEPARATOR, LockMode.READ);
+      int next = path.indexOf('/', 1);
+      while (next != -1 && next < end) {
+        if (path.charAt(next - 1) != '/') {
+          lockedPath.add(path.substring(0, next), LockMode.READ);
+        }
+        next = path.indexOf('/', next + 1);
+      }
+      lockedPath.add(path.substring(0, end), leafMode);
+      return lockedPath;
+    } catch (RuntimeException | Error e) {
+      lockedPath.close();
+      throw e;
+    }
+  }
+
+  private LockList obtain() {
+    LockList locks = mCache.get().pollFirst();
+    return locks == null ? new LockList() : locks;
+  }
+
+  private void recycle(LockList locks) {
+    ArrayDeque<LockList> cache = mCache.get();
+    if (cache.size() < MAX_CACHED_LOCK_LISTS_PER_THREAD) {
+      cache.addFirst(locks);
+    }
+  }
+
+  /**
+   * The pool entries locked for a path, reused across paths.
+   */
+  private static final class LockList {
+    private final List<LockPool.Resource<String>> mResources = new ArrayList<>();
+    private LockMode mLeafMode;
+  }
+
+  /**
+   * The locks held on the components of a path, from the root down. Closing it releases the
+   * locks in reverse order, closing it again fails.
+   */
+  @NotThreadSafe
+  public static final class LockedPath implements Closeable {
+    private final PathLockManager mManager;
+    /** The locks, null once closed and handed back for reuse. */
+    private LockList mLocks;
+
+    private LockedPath(PathLockManager manager, LockList locks) {
+      mManager = manager;
+      mLocks = locks;
+    }
+
+    private void add(String key, LockMode mode) {
+      LockPool.Resource<String> resource = mManager.mLockPool.acquireResource(key);
+      try {
+        lock(resource.getLock(), mode);
+      } catch (RuntimeException | Error e) {
+        resource.release();
+        throw e;
+      }
+      mLocks.mResources.add(resource);
+      mLocks.mLeafMode = mode;
+    }
+
+    /**
+     * @return the number of locked components, including the root
+     */
+    public int size() {
+      return checkOpen().mResources.size();
+    }
+
+    /**
+     * @return the mode the last component is locked in
+     */
+    public LockMode getLeafMode() {
+      return checkOpen().mLeafMode;
+    }
+
+    /**
+     * Downgrades the lock on the last component from write to read, see
+     * {@link RWLockResource#downgrade()}.
+     *
+     * @return whether the lock was downgraded, false if it was already a read lock
+     */
+    public boolean downgrade() {
+      LockList locks = checkOpen();
+      if (locks.mLeafMode != LockMode.WRITE) {
+        return false;
+      }
+      RWLockResource.downgrade(locks.mResources.get(locks.mResources.size() - 1).getLock());
+      locks.mLeafMode = LockMode.READ;
+      return true;
+    }
+
+    @Override
+    public void close() {
+      LockList locks = checkOpen();
+      mLocks = null;
+      List<LockPool.Resource<String>> resources = locks.mResources;
+      for (int i = resources.size() - 1; i >= 0; i--) {
+        LockPool.Resource<String> resource = resources.get(i);
+        unlock(resource.getLock(), i == resources.size() - 1 ? locks.mLeafMode : LockMode.READ);
+        mManager.mLockPool.releaseResource(resource);
+      }
+      resources.clear();
+      locks.mLeafMode = null;
+      mManager.recycle(locks);
+    }
+
+    private LockList checkOpen() {
+      Preconditions.checkState(mLocks != null, "Locked path is already closed");
+      return mLocks;
+    }
+
+    private static void lock(ReadWriteLock lock, LockMode mode) {
+      if (mode == LockMode.READ) {
+        lock.readLock().lock();
+      } else {
+        lock.writeLock().lock();
+      }
+    }
+
+    private static void unlock(ReadWriteLock lock, LockMode mode) {
+      if (mode == LockMode.READ) {
+        lock.readLock().unlock();
+      } else {
+        lock.writeLock().unlock();
+      }
+    }
+  }
+}
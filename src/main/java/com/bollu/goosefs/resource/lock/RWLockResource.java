@@ -2,19 +2,61 @@ package com.bollu.goosefs.resource.lock;
 
 import com.google.common.base.Preconditions;
 
+import javax.annotation.Nullable;
+import java.util.Optional;
 import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class RWLockResource extends LockResource{
 
-  private final ReentrantReadWriteLock mRwLock;
+  private final ReadWriteLock mRwLock;
 
-  public RWLockResource(ReentrantReadWriteLock rwLock, LockMode mode, boolean acquireLock,
+  public RWLockResource(ReadWriteLock rwLock, LockMode mode, boolean acquireLock,
                         boolean useTryLock) {
-    super(mode == LockMode.READ ? rwLock.readLock() : rwLock.writeLock(), acquireLock, useTryLock);
+    this(rwLock, mode, acquireLock, useTryLock, true);
+  }
+
+  public RWLockResource(ReadWriteLock rwLock, LockMode mode, boolean acquireLock,
+                        boolean useTryLock, @Nullable LockMetrics metrics) {
+    this(rwLock, mode, acquireLock, useTryLock, true, metrics);
+  }
+
+  protected RWLockResource(ReadWriteLock rwLock, LockMode mode, boolean acquireLock,
+                           boolean useTryLock, boolean trackLeak) {
+    this(rwLock, mode, acquireLock, useTryLock, trackLeak, null);
+  }
+
+  protected RWLockResource(ReadWriteLock rwLock, LockMode mode, boolean acquireLock,
+                           boolean useTryLock, boolean trackLeak, @Nullable LockMetrics metrics) {
+    super(mode == LockMode.READ ? rwLock.readLock() : rwLock.writeLock(), acquireLock, useTryLock,
+        null, trackLeak, metrics);
     mRwLock = rwLock;
   }
 
+  /**
+   * Acquires the lock in the given mode unless the deadline passes first, see
+   * {@link LockResource#tryLock(Lock, long, LockMetrics)}.
+   *
+   * @param rwLock the lock to acquire
+   * @param mode the mode to acquire the lock in
+   * @param deadlineNanos the {@link System#nanoTime()} after which to give up
+   * @param metrics the metrics recording this acquisition, null to not record it
+   * @return the resource holding the lock, empty if the deadline passed
+   * @throws InterruptedException if the thread is interrupted while waiting
+   */
+  public static Optional<RWLockResource> tryLock(ReadWriteLock rwLock, LockMode mode,
+      long deadlineNanos, @Nullable LockMetrics metrics) throws InterruptedException {
+    long startNanos = System.nanoTime();
+    int spins = acquireBefore(mode == LockMode.READ ? rwLock.readLock() : rwLock.writeLock(),
+        deadlineNanos);
+    if (spins < 0) {
+      return Optional.empty();
+    }
+    RWLockResource resource = new RWLockResource(rwLock, mode, false, false, metrics);
+    resource.recordWait(startNanos, spins);
+    return Optional.of(resource);
+  }
 
   //降级操作必须在同一个线程进行
 
@@ -41,17 +83,32 @@ public class RWLockResource extends LockResource{
    * @return
    */
   public boolean downgrade() {
-    if (!mRwLock.isWriteLocked()) {
+    if (mLock != mRwLock.writeLock()) {
       return false;
     }
-    Preconditions.checkState(mRwLock.isWriteLockedByCurrentThread(),
-        "Lock downgrades may only be initiated by the holding thread.");
-    Preconditions.checkState(mLock == mRwLock.writeLock(), "mLock must be the same as mRwLock");
-    // Downgrade by taking the read lock and then unlocking the write lock.
-    mRwLock.readLock().lock();
-    mLock.unlock();
+    downgrade(mRwLock);
     mLock = mRwLock.readLock();
     return true;
   }
+
+  /**
+   * Downgrades a held write lock to a read lock. A {@link ReentrantReadWriteLock} must be
+   * downgraded by the holding thread.
+   *
+   * @param rwLock the lock to downgrade
+   */
+  static void downgrade(ReadWriteLock rwLock) {
+    if (rwLock instanceof StampedReadWriteLock) {
+      // Not reentrant, taking the read lock while holding the write lock would deadlock.
+      ((StampedReadWriteLock) rwLock).downgrade();
+      return;
+    }
+    Preconditions.checkState(rwLock instanceof ReentrantReadWriteLock
+            && ((ReentrantReadWriteLock) rwLock).isWriteLockedByCurrentThread(),
+        "Lock downgrades may only be initiated by the holding thread.");
+    // Downgrade by taking the read lock and then unlocking the write lock.
+    rwLock.readLock().lock();
+    rwLock.writeLock().unlock();
+  }
 }
 
@@ -13,9 +13,10 @@ package com.bollu.goosefs.resource.lock;
 
 import com.google.common.base.Preconditions;
 
+import javax.annotation.Nullable;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.locks.ReadWriteLock;
 
 /**
  * Reference counted Lock resource, automatically unlocks and decrements the reference count.
@@ -36,9 +37,27 @@ public class RefCountLockResource extends RWLockResource {
    * @param useTryLock applicable only if acquireLock is true. Determines whether or not to use
    *                   {@link Lock#tryLock()} or {@link Lock#lock()} to acquire the lock
    */
-  public RefCountLockResource(ReentrantReadWriteLock lock, LockMode mode, boolean acquireLock,
+  public RefCountLockResource(ReadWriteLock lock, LockMode mode, boolean acquireLock,
                               AtomicInteger refCount, boolean useTryLock) {
-    super(lock, mode, acquireLock, useTryLock);
+    this(lock, mode, acquireLock, refCount, useTryLock, null);
+  }
+
+  /**
+   * Creates a new instance of {@link LockResource} using the given lock and reference counter,
+   * recording the acquisition into the given metrics.
+   *
+   * @param lock the lock to acquire
+   * @param mode the mode to acquire the lock in
+   * @param acquireLock whether to lock the lock
+   * @param refCount ref count for the lock
+   * @param useTryLock applicable only if acquireLock is true. Determines whether or not to use
+   *                   {@link Lock#tryLock()} or {@link Lock#lock()} to acquire the lock
+   * @param metrics the metrics recording this acquisition, null to not record it
+   */
+  public RefCountLockResource(ReadWriteLock lock, LockMode mode, boolean acquireLock,
+                              AtomicInteger refCount, boolean useTryLock,
+                              @Nullable LockMetrics metrics) {
+    super(lock, mode, acquireLock, useTryLock, metrics);
     mRefCount = Preconditions.checkNotNull(refCount,
         "Reference Counter can not be null");
   }
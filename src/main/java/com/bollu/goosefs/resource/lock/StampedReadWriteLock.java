@@ -0,0 +1,148 @@
+package com.bollu.goosefs.resource.lock;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A {@link ReadWriteLock} backed by a {@link StampedLock}, used by the pools created with
+ * {@link LockPool#withStampedLocks}.
+ *
+ * Unlike a {@link java.util.concurrent.locks.ReentrantReadWriteLock}, the locks are not owned by
+ * threads: a lock acquired by one thread may be released by another, which is what
+ * {@link LockPool#acquireAsync} relies on. In exchange the locks are NOT reentrant, a thread
+ * asking again for a lock it holds, e.g. a read lock while holding the write lock, deadlocks.
+ * The lock has no notion of owner, fairness or queued threads, and its locks do not support
+ * conditions.
+ *
+ * Readers which can retry may also read optimistically with {@link #tryOptimisticRead()} and
+ * {@link #validate(long)}, which take no lock and write no shared state.
+ */
+@ThreadSafe
+public class StampedReadWriteLock implements ReadWriteLock {
+  private final StampedLock mStampedLock = new StampedLock();
+  private final Lock mReadLock = mStampedLock.asReadLock();
+  private final Lock mWriteLock = new WriteLock();
+  /** Stamp of the current write lock, only meaningful while write locked. */
+  private volatile long mWriteStamp;
+  /** Set once the lock is dropped from its pool, see {@link #retire()}. */
+  private volatile boolean mRetired;
+
+  @Override
+  public Lock readLock() {
+    return mReadLock;
+  }
+
+  @Override
+  public Lock writeLock() {
+    return mWriteLock;
+  }
+
+  /**
+   * @return whether the lock is write locked, by any thread
+   */
+  public boolean isWriteLocked() {
+    return mStampedLock.isWriteLocked();
+  }
+
+  /**
+   * @return the number of read locks held, by any thread
+   */
+  public int getReadLockCount() {
+    return mStampedLock.getReadLockCount();
+  }
+
+  /**
+   * @return the underlying stamped lock
+   */
+  public StampedLock getStampedLock() {
+    return mStampedLock;
+  }
+
+  /**
+   * Starts an optimistic read, see {@link StampedLock#tryOptimisticRead()}.
+   *
+   * @return a stamp to validate after the read, 0 if the lock is write locked or retired
+   */
+  public long tryOptimisticRead() {
+    return mRetired ? 0L : mStampedLock.tryOptimisticRead();
+  }
+
+  /**
+   * @param stamp a stamp from {@link #tryOptimisticRead()}
+   * @return whether the lock has not been write locked or retired since the stamp was issued
+   */
+  public boolean validate(long stamp) {
+    return mStampedLock.validate(stamp) && !mRetired;
+  }
+
+  /**
+   * Invalidates every optimistic read of this lock, present and future. Called when the lock is
+   * evicted from its pool, since writers then lock the replacing lock instead.
+   */
+  void retire() {
+    mRetired = true;
+  }
+
+  /**
+   * Atomically converts the held write lock into a read lock.
+   */
+  void downgrade() {
+    long stamp = mStampedLock.tryConvertToReadLock(mWriteStamp);
+    Preconditions.checkState(stamp != 0L, "Lock is not write locked: %s", this);
+  }
+
+  @Override
+  public String toString() {
+    return getClass().getName() + "@" + Integer.toHexString(hashCode())
+        + "[" + mStampedLock + "]";
+  }
+
+  /**
+   * Write lock view, remembers the stamp so the lock can be downgraded.
+   */
+  private final class WriteLock implements Lock {
+    @Override
+    public void lock() {
+      mWriteStamp = mStampedLock.writeLock();
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+      mWriteStamp = mStampedLock.writeLockInterruptibly();
+    }
+
+    @Override
+    public boolean tryLock() {
+      return onLocked(mStampedLock.tryWriteLock());
+    }
+
+    @Override
+    public boolean tryLock(long timeout, TimeUnit unit) throws InterruptedException {
+      return onLocked(mStampedLock.tryWriteLock(timeout, unit));
+    }
+
+    private boolean onLocked(long stamp) {
+      if (stamp == 0L) {
+        return false;
+      }
+      mWriteStamp = stamp;
+      return true;
+    }
+
+    @Override
+    public void unlock() {
+      mStampedLock.unlockWrite(mWriteStamp);
+    }
+
+    @Override
+    public Condition newCondition() {
+      throw new UnsupportedOperationException("Conditions are not supported");
+    }
+  }
+}
@@ -0,0 +1,156 @@
+package com.bollu.goosefs.resource.lock;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Optional;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A lock pool which hashes keys onto a fixed number of pre-allocated
+ * {@link ReentrantReadWriteLock}s. Unlike {@link LockPool}, no entry is created or evicted per
+ * key, so acquiring a lock does no map update and no allocation, and no evictor thread is needed.
+ *
+ * The price is that different keys may share a stripe. Holding a stripe in one mode and asking
+ * for a different key on the same stripe in an incompatible mode from the same thread will
+ * deadlock, the same way it would for a single {@link ReentrantReadWriteLock}. Callers locking
+ * several keys at once must take them in a consistent order or use a large enough stripe count.
+ *
+ * The returned resources are shared by all holders of the same stripe and mode, they must be
+ * closed exactly once per acquisition and must not be used after being closed.
+ *
+ * @param <K> key type
+ */
+@ThreadSafe
+public class StripedLockPool<K> {
+  private static final int MAX_STRIPES = 1 << 30;
+
+  private final Stripe[] mStripes;
+  private final int mMask;
+
+  /**
+   * @param numStripes the number of stripes, rounded up to the next power of two
+   */
+  public StripedLockPool(int numStripes) {
+    this(numStripes, false);
+  }
+
+  /**
+   * @param numStripes the number of stripes, rounded up to the next power of two
+   * @param fair whether the stripe locks use a fair ordering policy
+   */
+  public StripedLockPool(int numStripes, boolean fair) {
+    Preconditions.checkArgument(numStripes > 0 && numStripes <= MAX_STRIPES,
+        "numStripes must be in (0, %s]: %s", MAX_STRIPES, numStripes);
+    int size = Integer.highestOneBit(numStripes);
+    if (size < numStripes) {
+      size <<= 1;
+    }
+    mStripes = new Stripe[size];
+    for (int i = 0; i < size; i++) {
+      mStripes[i] = new Stripe(new ReentrantReadWriteLock(fair));
+    }
+    mMask = size - 1;
+  }
+
+  public LockResource get(K key, LockMode mode) {
+    return get(key, mode, false);
+  }
+
+  public RWLockResource get(K key, LockMode mode, boolean useTryLock) {
+    StripeLockResource resource = stripe(key).resource(mode);
+    // Lock mModeLock rather than mLock, the latter may still be a downgraded read lock left by
+    // the previous holder until that holder closes the resource.
+    LockResource.acquire(resource.mModeLock, useTryLock);
+    return resource;
+  }
+
+  public Optional<RWLockResource> tryGet(K key, LockMode mode) {
+    StripeLockResource resource = stripe(key).resource(mode);
+    if (!resource.mModeLock.tryLock()) {
+      return Optional.empty();
+    }
+    return resource.mOptional;
+  }
+
+  public ReentrantReadWriteLock getRawReadWriteLock(K key) {
+    return stripe(key).mLock;
+  }
+
+  /**
+   * @return the number of stripes
+   */
+  public int size() {
+    return mStripes.length;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("stripes", mStripes.length)
+        .toString();
+  }
+
+  private Stripe stripe(K key) {
+    Preconditions.checkNotNull(key, "key can not be null");
+    int h = key.hashCode();
+    // Spread the higher bits downwards, same as ConcurrentHashMap, since only the low bits
+    // select the stripe.
+    h ^= (h >>> 16);
+    return mStripes[h & mMask];
+  }
+
+  /**
+   * A stripe holding one lock and the reusable resources for both lock modes.
+   */
+  private static final class Stripe {
+    private final ReentrantReadWriteLock mLock;
+    private final StripeLockResource mReadResource;
+    private final StripeLockResource mWriteResource;
+
+    private Stripe(ReentrantReadWriteLock lock) {
+      mLock = lock;
+      mReadResource = new StripeLockResource(lock, LockMode.READ);
+      mWriteResource = new StripeLockResource(lock, LockMode.WRITE);
+    }
+
+    private StripeLockResource resource(LockMode mode) {
+      switch (mode) {
+        case READ:
+          return mReadResource;
+        case WRITE:
+          return mWriteResource;
+        default:
+          throw new IllegalStateException("Unknown lock mode: " + mode);
+      }
+    }
+  }
+
+  /**
+   * A pre-allocated lock resource which is handed out on every acquisition of its stripe.
+   * It is not registered with the leak detector since it lives as long as the pool.
+   */
+  private static final class StripeLockResource extends RWLockResource {
+    private final Lock mModeLock;
+    private final Optional<RWLockResource> mOptional;
+
+    private StripeLockResource(ReentrantReadWriteLock lock, LockMode mode) {
+      super(lock, mode, false, false, false);
+      mModeLock = mLock;
+      mOptional = Optional.of(this);
+    }
+
+    @Override
+    public void close() {
+      // A write resource may have been downgraded, reset it before releasing the lock so the
+      // next writer sees the write lock again.
+      Lock held = mLock;
+      if (held != mModeLock) {
+        mLock = mModeLock;
+      }
+      held.unlock();
+    }
+  }
+}
@@ -0,0 +1,120 @@
+package com.bollu.goosefs.resource.lock.eviction;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Base class for policies which keep their own ordering of the entries. Foreground threads only
+ * record events into buffers, the ordering is updated by the evictor thread when it drains the
+ * buffers at the start of each eviction, so no lock is shared with the foreground threads.
+ *
+ * Inserts are never dropped since an entry unknown to the policy could never be evicted.
+ * Accesses are recorded into a lossy buffer, losing some of them under heavy load only makes the
+ * ordering slightly less accurate.
+ *
+ * Within a pass, subclasses try at most as many entries as the policy held when the pass
+ * started, see {@link #tryEvict}.
+ *
+ * @param <K> key type
+ */
+abstract class BufferedEvictionPolicy<K> implements EvictionPolicy<K> {
+  private static final int ACCESS_BUFFER_SIZE = 1024;
+  private static final int ACCESS_BUFFER_MASK = ACCESS_BUFFER_SIZE - 1;
+
+  private final ConcurrentLinkedQueue<Entry<K>> mInsertBuffer = new ConcurrentLinkedQueue<>();
+  private final AtomicReferenceArray<Entry<K>> mAccessBuffer =
+      new AtomicReferenceArray<>(ACCESS_BUFFER_SIZE);
+  /** Remaining evictions to try in the current pass, -1 until the first slice sets it. */
+  private long mPassBudget = -1;
+
+  @Override
+  public void onInsert(Entry<K> entry) {
+    mInsertBuffer.add(entry);
+  }
+
+  @Override
+  public void onAccess(Entry<K> entry) {
+    // A random slot spreads concurrent writers over the buffer instead of contending on an index.
+    mAccessBuffer.lazySet(ThreadLocalRandom.current().nextInt() & ACCESS_BUFFER_MASK, entry);
+  }
+
+  @Override
+  public void startPass() {
+    mPassBudget = -1;
+  }
+
+  @Override
+  public int evict(int numToEvict, long deadlineNanos, Target<K> target) {
+    drainBuffers();
+    if (mPassBudget < 0) {
+      mPassBudget = size();
+    }
+    return evictDrained(numToEvict, deadlineNanos, target);
+  }
+
+  /**
+   * @param deadlineNanos the deadline of the current slice
+   * @return whether the current slice may try to evict another entry
+   */
+  protected final boolean canContinue(long deadlineNanos) {
+    return mPassBudget > 0 && !EvictionPolicy.isExpired(deadlineNanos);
+  }
+
+  /**
+   * Tries to evict the entry, counting it against the budget of the current pass.
+   *
+   * @param entry the entry to evict
+   * @param target the pool to evict from
+   * @return whether the entry was evicted
+   */
+  protected final boolean tryEvict(Entry<K> entry, Target<K> target) {
+    mPassBudget--;
+    return target.tryEvict(entry);
+  }
+
+  private void drainBuffers() {
+    Entry<K> entry;
+    while ((entry = mInsertBuffer.poll()) != null) {
+      onInsertDrained(entry);
+    }
+    for (int i = 0; i < ACCESS_BUFFER_SIZE; i++) {
+      if (mAccessBuffer.get(i) != null) {
+        entry = mAccessBuffer.getAndSet(i, null);
+        if (entry != null) {
+          onAccessDrained(entry);
+        }
+      }
+    }
+  }
+
+  /**
+   * Called by the evictor thread for every recorded insert.
+   *
+   * @param entry the inserted entry
+   */
+  protected abstract void onInsertDrained(Entry<K> entry);
+
+  /**
+   * Called by the evictor thread for recorded accesses. The entry may already have been evicted.
+   *
+   * @param entry the accessed entry
+   */
+  protected abstract void onAccessDrained(Entry<K> entry);
+
+  /**
+   * @return the number of entries known to the policy
+   */
+  protected abstract int size();
+
+  /**
+   * Evicts entries once all the buffered events have been applied. Implementations should loop
+   * while {@link #canContinue} holds and evict through {@link #tryEvict(Entry, Target)}.
+   *
+   * @param numToEvict the number of entries to evict
+   * @param deadlineNanos a {@link System#nanoTime()} deadline or {@link #NO_DEADLINE}
+   * @param target the pool to evict from
+   * @return the number of entries evicted
+   */
+  protected abstract int evictDrained(int numToEvict, long deadlineNanos, Target<K> target);
+}
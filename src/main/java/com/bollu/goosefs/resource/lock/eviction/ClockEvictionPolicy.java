@@ -0,0 +1,66 @@
+package com.bollu.goosefs.resource.lock.eviction;
+
+import java.util.Iterator;
+
+/**
+ * CLOCK eviction, scans the pool and evicts entries not accessed since the previous scan.
+ *
+ * @param <K> key type
+ */
+public class ClockEvictionPolicy<K> implements EvictionPolicy<K> {
+  /** Reading the clock costs more than checking an entry, only do it every few entries. */
+  private static final int DEADLINE_CHECK_MASK = 0x3f;
+
+  private Iterator<? extends Entry<K>> mIterator;
+  private int mRoundsToScan;
+
+  @Override
+  public void onInsert(Entry<K> entry) {
+    // The pool marks accesses on the entry itself.
+  }
+
+  @Override
+  public void onAccess(Entry<K> entry) {
+    // The pool marks accesses on the entry itself.
+  }
+
+  @Override
+  public void startPass() {
+    // The first round of scan uses the mIterator left from last eviction.
+    // Then scan the pool from a new iterator for at most two round:
+    // first round to mark candidate.mIsAccessed as false,
+    // second round to remove the candidate from the pool.
+    mRoundsToScan = 3;
+  }
+
+  @Override
+  public int evict(int numToEvict, long deadlineNanos, Target<K> target) {
+    if (mIterator == null) {
+      mIterator = target.iterator();
+    }
+    int evicted = 0;
+    int scanned = 0;
+    while (evicted < numToEvict && mRoundsToScan > 0) {
+      if ((++scanned & DEADLINE_CHECK_MASK) == 0 && EvictionPolicy.isExpired(deadlineNanos)) {
+        break;
+      }
+      if (!mIterator.hasNext()) {
+        mIterator = target.iterator();
+        mRoundsToScan--;
+        continue;
+      }
+      Entry<K> candidate = mIterator.next();
+      if (candidate.isAccessed()) {
+        candidate.clearAccessed();
+      } else if (target.tryEvict(candidate)) {
+        evicted++;
+      }
+    }
+    return evicted;
+  }
+
+  @Override
+  public String toString() {
+    return EvictionPolicyType.CLOCK.name();
+  }
+}
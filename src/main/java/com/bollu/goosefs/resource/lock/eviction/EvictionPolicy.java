@@ -0,0 +1,109 @@
+package com.bollu.goosefs.resource.lock.eviction;
+
+import java.util.Iterator;
+
+/**
+ * Decides which entries of a {@link com.bollu.goosefs.resource.lock.LockPool} are evicted once
+ * the pool grows over its high watermark.
+ *
+ * {@link #onInsert} and {@link #onAccess} are called by foreground threads while they hold the
+ * pool's map entry, so they must be cheap and must never block or call back into the pool.
+ * {@link #evict} is only ever called from the single evictor thread of the pool.
+ *
+ * @param <K> key type
+ */
+public interface EvictionPolicy<K> {
+  /**
+   * Deadline passed to {@link #evict} when the slice is not time bounded.
+   */
+  long NO_DEADLINE = Long.MAX_VALUE;
+
+  /**
+   * @param deadlineNanos a {@link System#nanoTime()} deadline or {@link #NO_DEADLINE}
+   * @return whether the deadline has passed
+   */
+  static boolean isExpired(long deadlineNanos) {
+    return deadlineNanos != NO_DEADLINE && System.nanoTime() - deadlineNanos >= 0;
+  }
+
+  /**
+   * Called when a new entry is added to the pool.
+   *
+   * @param entry the new entry
+   */
+  void onInsert(Entry<K> entry);
+
+  /**
+   * Called when an existing entry is acquired again.
+   *
+   * @param entry the accessed entry
+   */
+  void onAccess(Entry<K> entry);
+
+  /**
+   * Called before the first slice of an eviction pass. A pass may be split into several calls
+   * to {@link #evict}, the policy must bound the work of the whole pass so it terminates even if
+   * every entry is in use.
+   */
+  void startPass();
+
+  /**
+   * Evicts up to the given number of entries which are not referenced, stopping early once the
+   * deadline has passed. The scan position is kept across calls. Returning fewer entries than
+   * asked before the deadline means the policy has no more candidates in the current pass.
+   *
+   * @param numToEvict the number of entries to evict
+   * @param deadlineNanos a {@link System#nanoTime()} deadline or {@link #NO_DEADLINE}
+   * @param target the pool to evict from
+   * @return the number of entries evicted
+   */
+  int evict(int numToEvict, long deadlineNanos, Target<K> target);
+
+  /**
+   * An entry of the pool as seen by the policy.
+   *
+   * @param <K> key type
+   */
+  interface Entry<K> {
+    /**
+     * @return the key of the entry
+     */
+    K getKey();
+
+    /**
+     * @return whether the entry has been accessed since the flag was last cleared
+     */
+    boolean isAccessed();
+
+    /**
+     * Clears the accessed flag.
+     */
+    void clearAccessed();
+  }
+
+  /**
+   * The pool being evicted from.
+   *
+   * @param <K> key type
+   */
+  interface Target<K> {
+    /**
+     * @return a weakly consistent iterator over the current entries
+     */
+    Iterator<? extends Entry<K>> iterator();
+
+    /**
+     * Removes the entry from the pool if it is not referenced. Once this returns true the entry
+     * will never be handed out again, so the policy should forget about it.
+     *
+     * @param entry the entry to evict
+     * @return whether the entry was evicted
+     */
+    boolean tryEvict(Entry<K> entry);
+
+    /**
+     * @return the number of entries in the pool
+     */
+    int size();
+  }
+}
@@ -0,0 +1,43 @@
+package com.bollu.goosefs.resource.lock.eviction;
+
+/**
+ * The built-in {@link EvictionPolicy}s.
+ */
+public enum EvictionPolicyType {
+  /**
+   * Second chance scan over the pool, entries accessed since the last scan survive one more
+   * round. Keeps no state besides one flag per entry.
+   */
+  CLOCK {
+    @Override
+    public <K> EvictionPolicy<K> create(int capacity) {
+      return new ClockEvictionPolicy<>();
+    }
+  },
+  /**
+   * Segmented LRU, entries accessed more than once are protected from entries only seen once.
+   */
+  SEGMENTED_LRU {
+    @Override
+    public <K> EvictionPolicy<K> create(int capacity) {
+      return new SegmentedLruEvictionPolicy<>(capacity);
+    }
+  },
+  /**
+   * Segmented LRU behind a small admission window, keys leaving the window only displace older
+   * entries if they are estimated to be used more often.
+   */
+  TINY_LFU {
+    @Override
+    public <K> EvictionPolicy<K> create(int capacity) {
+      return new TinyLfuEvictionPolicy<>(capacity);
+    }
+  };
+
+  /**
+   * @param capacity the expected number of entries in the pool
+   * @param <K> key type
+   * @return a new policy instance
+   */
+  public abstract <K> EvictionPolicy<K> create(int capacity);
+}
@@ -0,0 +1,138 @@
+package com.bollu.goosefs.resource.lock.eviction;
+
+import com.google.common.base.MoreObjects;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the evictions of one pool. Written by the evictor thread only, readable from any thread.
+ */
+@ThreadSafe
+public final class EvictionStats {
+  private final String mPolicy;
+  private volatile long mPasses;
+  private volatile long mAttempts;
+  private volatile long mEvicted;
+  private volatile long mTotalTimeNanos;
+  private volatile long mMaxPassTimeNanos;
+  private volatile long mLastPassTimeNanos;
+  private volatile long mSlices;
+  private volatile long mMaxSliceTimeNanos;
+
+  /**
+   * @param policy the name of the eviction policy
+   */
+  public EvictionStats(String policy) {
+    mPolicy = policy;
+  }
+
+  /**
+   * Records one eviction pass, must only be called from the evictor thread.
+   *
+   * @param attempts the number of entries the policy tried to evict
+   * @param evicted the number of entries evicted
+   * @param timeNanos the time spent in the pass
+   */
+  public void recordPass(long attempts, long evicted, long timeNanos) {
+    mPasses++;
+    mAttempts += attempts;
+    mEvicted += evicted;
+    mTotalTimeNanos += timeNanos;
+    mLastPassTimeNanos = timeNanos;
+    if (timeNanos > mMaxPassTimeNanos) {
+      mMaxPassTimeNanos = timeNanos;
+    }
+  }
+
+  /**
+   * Records one slice of an incremental eviction pass, must only be called from the evictor
+   * thread.
+   *
+   * @param timeNanos the time spent in the slice
+   */
+  public void recordSlice(long timeNanos) {
+    mSlices++;
+    if (timeNanos > mMaxSliceTimeNanos) {
+      mMaxSliceTimeNanos = timeNanos;
+    }
+  }
+
+  /**
+   * @return the name of the eviction policy
+   */
+  public String getPolicy() {
+    return mPolicy;
+  }
+
+  /**
+   * @return the number of eviction passes
+   */
+  public long getPasses() {
+    return mPasses;
+  }
+
+  /**
+   * @return the number of entries the policy tried to evict, including the ones still in use
+   */
+  public long getAttempts() {
+    return mAttempts;
+  }
+
+  /**
+   * @return the number of entries evicted
+   */
+  public long getEvicted() {
+    return mEvicted;
+  }
+
+  /**
+   * @return the total time spent evicting in nanoseconds
+   */
+  public long getTotalTimeNanos() {
+    return mTotalTimeNanos;
+  }
+
+  /**
+   * @return the longest eviction pass in nanoseconds
+   */
+  public long getMaxPassTimeNanos() {
+    return mMaxPassTimeNanos;
+  }
+
+  /**
+   * @return the last eviction pass in nanoseconds
+   */
+  public long getLastPassTimeNanos() {
+    return mLastPassTimeNanos;
+  }
+
+  /**
+   * @return the number of eviction slices, each pass has at least one
+   */
+  public long getSlices() {
+    return mSlices;
+  }
+
+  /**
+   * @return the longest eviction slice in nanoseconds
+   */
+  public long getMaxSliceTimeNanos() {
+    return mMaxSliceTimeNanos;
+  }
+
+  @Override
+  public String toString() {
+    return MoreObjects.toStringHelper(this)
+        .add("policy", mPolicy)
+        .add("passes", mPasses)
+        .add("attempts", mAttempts)
+        .add("evicted", mEvicted)
+        .add("totalTimeMs", TimeUnit.NANOSECONDS.toMillis(mTotalTimeNanos))
+        .add("maxPassTimeUs", TimeUnit.NANOSECONDS.toMicros(mMaxPassTimeNanos))
+        .add("lastPassTimeUs", TimeUnit.NANOSECONDS.toMicros(mLastPassTimeNanos))
+        .add("slices", mSlices)
+        .add("maxSliceTimeUs", TimeUnit.NANOSECONDS.toMicros(mMaxSliceTimeNanos))
+        .toString();
+  }
+}
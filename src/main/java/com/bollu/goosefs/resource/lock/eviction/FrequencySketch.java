@@ -0,0 +1,102 @@
+package com.bollu.goosefs.resource.lock.eviction;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A count-min sketch estimating how often keys are seen, with 4-bit counters packed 16 to a
+ * long. Every key maps to one counter in each of four rows, the estimate is the minimum of them.
+ * After a number of increments proportional to the capacity all counters are halved, so the
+ * estimates follow recent popularity instead of growing forever.
+ */
+@NotThreadSafe
+final class FrequencySketch {
+  private static final long[] SEEDS = {
+      0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+  private static final long RESET_MASK = 0x7777777777777777L;
+  private static final long ONE_MASK = 0x1111111111111111L;
+  private static final int MAX_COUNT = 15;
+  private static final int MAX_TABLE_SIZE = 1 << 30;
+
+  private final long[] mTable;
+  private final int mTableMask;
+  private final int mSampleSize;
+  private int mSize;
+
+  /**
+   * @param capacity the expected number of distinct keys
+   */
+  FrequencySketch(int capacity) {
+    int size = Math.min(Math.max(capacity, 16), MAX_TABLE_SIZE);
+    size = Integer.highestOneBit(size - 1) << 1;
+    mTable = new long[size];
+    mTableMask = size - 1;
+    mSampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @param key the key
+   * @return the estimated number of recent occurrences of the key, at most 15
+   */
+  int frequency(Object key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    int frequency = MAX_COUNT;
+    for (int i = 0; i < 4; i++) {
+      int index = indexOf(hash, i);
+      int count = (int) ((mTable[index] >>> ((start + i) << 2)) & 0xfL);
+      frequency = Math.min(frequency, count);
+    }
+    return frequency;
+  }
+
+  /**
+   * Records an occurrence of the key.
+   *
+   * @param key the key
+   */
+  void increment(Object key) {
+    int hash = spread(key.hashCode());
+    int start = (hash & 3) << 2;
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      added |= incrementAt(indexOf(hash, i), start + i);
+    }
+    if (added && ++mSize >= mSampleSize) {
+      reset();
+    }
+  }
+
+  private boolean incrementAt(int index, int counter) {
+    int offset = counter << 2;
+    long mask = 0xfL << offset;
+    if ((mTable[index] & mask) != mask) {
+      mTable[index] += 1L << offset;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Halves every counter.
+   */
+  private void reset() {
+    int odd = 0;
+    for (int i = 0; i < mTable.length; i++) {
+      odd += Long.bitCount(mTable[i] & ONE_MASK);
+      mTable[i] = (mTable[i] >>> 1) & RESET_MASK;
+    }
+    mSize = (mSize >>> 1) - (odd >>> 2);
+  }
+
+  private int indexOf(int hash, int row) {
+    long h = (hash + SEEDS[row]) * SEEDS[row];
+    h += (h >>> 32);
+    return ((int) h) & mTableMask;
+  }
+
+  private static int spread(int x) {
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    x = ((x >>> 16) ^ x) * 0x45d9f3b;
+    return (x >>> 16) ^ x;
+  }
+}
@@ -0,0 +1,53 @@
+package com.bollu.goosefs.resource.lock.eviction;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * An LRU ordered segment of entries, the head is the least recently used one.
+ *
+ * @param <E> entry type
+ */
+@NotThreadSafe
+final class Segment<E> {
+  private final LinkedHashSet<E> mEntries = new LinkedHashSet<>();
+
+  boolean contains(E entry) {
+    return mEntries.contains(entry);
+  }
+
+  /**
+   * Adds the entry as the most recently used one, moving it if it is already present.
+   */
+  void addLast(E entry) {
+    mEntries.remove(entry);
+    mEntries.add(entry);
+  }
+
+  boolean remove(E entry) {
+    return mEntries.remove(entry);
+  }
+
+  @Nullable
+  E peekFirst() {
+    Iterator<E> iterator = mEntries.iterator();
+    return iterator.hasNext() ? iterator.next() : null;
+  }
+
+  @Nullable
+  E pollFirst() {
+    Iterator<E> iterator = mEntries.iterator();
+    if (!iterator.hasNext()) {
+      return null;
+    }
+    E entry = iterator.next();
+    iterator.remove();
+    return entry;
+  }
+
+  int size() {
+    return mEntries.size();
+  }
+}
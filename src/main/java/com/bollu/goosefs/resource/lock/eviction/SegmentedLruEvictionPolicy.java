@@ -0,0 +1,78 @@
+package com.bollu.goosefs.resource.lock.eviction;
+
+/**
+ * Segmented LRU eviction. New entries start in the probation segment and move to the protected
+ * segment when accessed again, entries overflowing the protected segment fall back to
+ * probation. Eviction takes the least recently used entries of probation first, so a burst of
+ * keys used only once does not push out the keys which are used repeatedly.
+ *
+ * @param <K> key type
+ */
+public class SegmentedLruEvictionPolicy<K> extends BufferedEvictionPolicy<K> {
+  private static final double PROTECTED_RATIO = 0.8;
+
+  private final int mMaxProtected;
+  private final Segment<Entry<K>> mProbation = new Segment<>();
+  private final Segment<Entry<K>> mProtected = new Segment<>();
+
+  /**
+   * @param capacity the expected number of entries in the pool
+   */
+  public SegmentedLruEvictionPolicy(int capacity) {
+    mMaxProtected = Math.max(1, (int) (capacity * PROTECTED_RATIO));
+  }
+
+  @Override
+  protected void onInsertDrained(Entry<K> entry) {
+    mProbation.addLast(entry);
+  }
+
+  @Override
+  protected void onAccessDrained(Entry<K> entry) {
+    if (mProbation.remove(entry)) {
+      mProtected.addLast(entry);
+      while (mProtected.size() > mMaxProtected) {
+        mProbation.addLast(mProtected.pollFirst());
+      }
+    } else if (mProtected.contains(entry)) {
+      mProtected.addLast(entry);
+    }
+  }
+
+  @Override
+  protected int size() {
+    return mProbation.size() + mProtected.size();
+  }
+
+  @Override
+  protected int evictDrained(int numToEvict, long deadlineNanos, Target<K> target) {
+    int evicted = evictFrom(mProbation, numToEvict, deadlineNanos, target);
+    if (evicted < numToEvict) {
+      evicted += evictFrom(mProtected, numToEvict - evicted, deadlineNanos, target);
+    }
+    return evicted;
+  }
+
+  /**
+   * Evicts from the head of the segment, entries still in use are moved to the tail.
+   */
+  private int evictFrom(Segment<Entry<K>> segment, int numToEvict, long deadlineNanos,
+      Target<K> target) {
+    int evicted = 0;
+    for (int toScan = segment.size();
+         toScan > 0 && evicted < numToEvict && canContinue(deadlineNanos); toScan--) {
+      Entry<K> candidate = segment.pollFirst();
+      if (tryEvict(candidate, target)) {
+        evicted++;
+      } else {
+        segment.addLast(candidate);
+      }
+    }
+    return evicted;
+  }
+
+  @Override
+  public String toString() {
+    return EvictionPolicyType.SEGMENTED_LRU.name();
+  }
+}
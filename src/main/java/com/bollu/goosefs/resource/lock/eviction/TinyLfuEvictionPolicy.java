@@ -0,0 +1,107 @@
+package com.bollu.goosefs.resource.lock.eviction;
+
+/**
+ * Window TinyLFU eviction. New entries go to a small LRU window, when the window overflows its
+ * oldest entry competes with the oldest entry of a segmented LRU main area, and whichever key has
+ * the lower estimated access frequency is evicted. Frequencies are kept per key in a
+ * {@link FrequencySketch}, so they survive the eviction and re-creation of a lock entry.
+ *
+ * @param <K> key type
+ */
+public class TinyLfuEvictionPolicy<K> extends BufferedEvictionPolicy<K> {
+  private static final double WINDOW_RATIO = 0.01;
+  private static final double PROTECTED_RATIO = 0.8;
+
+  private final int mMaxWindow;
+  private final int mMaxProtected;
+  private final Segment<Entry<K>> mWindow = new Segment<>();
+  private final Segment<Entry<K>> mProbation = new Segment<>();
+  private final Segment<Entry<K>> mProtected = new Segment<>();
+  private final FrequencySketch mSketch;
+
+  /**
+   * @param capacity the expected number of entries in the pool
+   */
+  public TinyLfuEvictionPolicy(int capacity) {
+    capacity = Math.max(1, capacity);
+    mMaxWindow = Math.max(1, (int) (capacity * WINDOW_RATIO));
+    mMaxProtected = Math.max(1, (int) ((capacity - mMaxWindow) * PROTECTED_RATIO));
+    mSketch = new FrequencySketch(capacity);
+  }
+
+  @Override
+  protected void onInsertDrained(Entry<K> entry) {
+    mSketch.increment(entry.getKey());
+    mWindow.addLast(entry);
+  }
+
+  @Override
+  protected void onAccessDrained(Entry<K> entry) {
+    mSketch.increment(entry.getKey());
+    if (mWindow.contains(entry)) {
+      mWindow.addLast(entry);
+    } else if (mProbation.remove(entry)) {
+      mProtected.addLast(entry);
+      while (mProtected.size() > mMaxProtected) {
+        mProbation.addLast(mProtected.pollFirst());
+      }
+    } else if (mProtected.contains(entry)) {
+      mProtected.addLast(entry);
+    }
+  }
+
+  @Override
+  protected int size() {
+    return mWindow.size() + mProbation.size() + mProtected.size();
+  }
+
+  @Override
+  protected int evictDrained(int numToEvict, long deadlineNanos, Target<K> target) {
+    int evicted = 0;
+    // Every round either evicts, admits a window entry into probation, or rotates an entry in
+    // use. Admissions are bounded by the window size and the others by the pass budget, so the
+    // loop terminates even on a pool fully in use.
+    while (evicted < numToEvict && canContinue(deadlineNanos)) {
+      Segment<Entry<K>> victimSegment = mProbation.size() > 0 ? mProbation : mProtected;
+      Entry<K> victim = victimSegment.peekFirst();
+      Entry<K> candidate =
+          (mWindow.size() > mMaxWindow || victim == null) ? mWindow.peekFirst() : null;
+      if (candidate == null && victim == null) {
+        break;
+      }
+      if (candidate != null && victim != null) {
+        if (mSketch.frequency(candidate.getKey()) > mSketch.frequency(victim.getKey())) {
+          mWindow.remove(candidate);
+          mProbation.addLast(candidate);
+          evicted += evictOrRotate(victimSegment, victim, target);
+        } else {
+          evicted += evictOrRotate(mWindow, candidate, target);
+        }
+      } else if (candidate != null) {
+        evicted += evictOrRotate(mWindow, candidate, target);
+      } else {
+        evicted += evictOrRotate(victimSegment, victim, target);
+      }
+    }
+    return evicted;
+  }
+
+  /**
+   * Tries to evict the entry, an entry still in use is moved to the tail of its segment.
+   *
+   * @return 1 if the entry is evicted, 0 otherwise
+   */
+  private int evictOrRotate(Segment<Entry<K>> segment, Entry<K> entry, Target<K> target) {
+    segment.remove(entry);
+    if (tryEvict(entry, target)) {
+      return 1;
+    }
+    segment.addLast(entry);
+    return 0;
+  }
+
+  @Override
+  public String toString() {
+    return EvictionPolicyType.TINY_LFU.name();
+  }
+}
@@ -9,6 +9,7 @@ import com.google.common.base.Preconditions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 import java.io.IOException;
 import java.time.Clock;
@@ -17,12 +18,21 @@ import java.util.ArrayList;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -34,6 +44,15 @@ public abstract class DynamicResourcePool<T> implements Pool<T> {
     LIFO,
   }
 
+  public enum HealthCheckPolicy {
+    // check every resource handed out by acquire
+    ON_ACQUIRE,
+    // check resources handed out by acquire only if they were idle past the threshold
+    AFTER_IDLE,
+    // check idle resources periodically on the gc executor, acquire does not check
+    BACKGROUND,
+  }
+
   private static final Logger LOG = LoggerFactory.getLogger(DynamicResourcePool.class);
 
   protected class ResourceInternal<R> {
@@ -47,6 +66,12 @@ public abstract class DynamicResourcePool<T> implements Pool<T> {
      */
     private long mLastAccessTimeMs;
 
+    /**
+     * Set while the resource is parked in the cache of the thread which released it. Whoever
+     * clears it owns the resource, which lets other threads and the GC take it from the cache.
+     */
+    private final AtomicBoolean mCached = new AtomicBoolean();
+
     /**
      * @param lastAccessTimeMs the last access time in ms
      */
@@ -73,9 +98,16 @@ public abstract class DynamicResourcePool<T> implements Pool<T> {
   }
 
   private static final int BLOCK_MASTER_CLIENT_POOL_GC_THREADPOOL_SIZE = 1;
-  private static final ScheduledExecutorService GC_EXECUTOR =
+  static final ScheduledExecutorService GC_EXECUTOR =
       new ScheduledThreadPoolExecutor(BLOCK_MASTER_CLIENT_POOL_GC_THREADPOOL_SIZE,
           ThreadFactoryUtils.build("DefaultPoolGcThreads-%d", true));
+  /**
+   * Runs the background work of the pools without a creation executor of their own. Creations,
+   * health checks and the serving of queued requests may block, a cached pool gives each its own
+   * thread, so no pool and no gc waits behind another pool's slow work.
+   */
+  static final ExecutorService CREATION_EXECUTOR = Executors.newCachedThreadPool(
+      ThreadFactoryUtils.build("DefaultPoolCreationThreads-%d", true));
 
   /**
    * Options to initialize a Dynamic resource pool.
@@ -114,6 +146,78 @@ public abstract class DynamicResourcePool<T> implements Pool<T> {
      */
     private SelectionPolicy mSelectionPolicy = SelectionPolicy.LIFO;
 
+    /**
+     * When {@link #isHealthy} is called on idle resources.
+     */
+    private HealthCheckPolicy mHealthCheckPolicy = HealthCheckPolicy.ON_ACQUIRE;
+
+    /**
+     * How long a resource must have been idle before it is checked, for the
+     * {@link HealthCheckPolicy#AFTER_IDLE} and {@link HealthCheckPolicy#BACKGROUND} policies.
+     */
+    private long mHealthCheckIdleThresholdMs = 0;
+
+    /**
+     * The interval of the background health checks.
+     */
+    private long mHealthCheckIntervalMs = 30L * Constants.SECOND_MS;
+
+    /**
+     * The max number of released resources kept by each thread for its next acquisitions, 0 to
+     * disable the thread caches.
+     */
+    private int mThreadCacheSize = 0;
+
+    /**
+     * If set to true, {@link #acquire()} never creates a resource on the caller's thread. It
+     * starts a creation on the creation executor and takes whichever comes first, the new
+     * resource or one released meanwhile.
+     */
+    private boolean mAsyncCreation = false;
+
+    /**
+     * The executor creating resources in the background and serving the queued asynchronous
+     * requests, null to use a cached thread pool shared by the pools.
+     */
+    private Executor mCreationExecutor = null;
+
+    /**
+     * The max number of resources being created at the same time.
+     */
+    private int mMaxConcurrentCreations = Integer.MAX_VALUE;
+
+    /**
+     * The number of idle resources created ahead of demand, 0 to only create on demand.
+     */
+    private int mPrewarmIdleCount = 0;
+
+    /**
+     * The name tagged on the metrics of the pool, null to not record metrics.
+     */
+    @Nullable
+    private String mMetricsName = null;
+
+    /**
+     * If set to true, the effective min and max capacity follow the load within the min and max
+     * capacity, see {@link PoolSizeController}.
+     */
+    private boolean mAdaptiveSizing = false;
+
+    /**
+     * The interval of the adaptive sizing adjustments.
+     */
+    private long mAdaptiveSizingIntervalMs = Constants.SECOND_MS;
+
+    /**
+     * The fraction of the effective max capacity adaptive sizing aims to have in use.
+     */
+    private double mTargetUtilization = 0.75;
+
+    /**
+     * The longest wait for a resource adaptive sizing accepts before growing the pool.
+     */
+    private long mTargetAcquireWaitMs = 10;
+
     /**
      * @return the max capacity
      */
@@ -165,6 +269,243 @@ public abstract class DynamicResourcePool<T> implements Pool<T> {
       return this;
     }
 
+    /**
+     * @return the max number of resources cached per thread, 0 if thread caches are disabled
+     */
+    public int getThreadCacheSize() {
+      return mThreadCacheSize;
+    }
+
+    /**
+     * Lets each thread keep the resources it releases, so its next {@link #acquire()} gets one
+     * of them back without touching the shared idle list. Cached resources still count against
+     * the max capacity, and are handed over to other threads once the pool runs dry and to
+     * the GC once idle.
+     *
+     * @param threadCacheSize the max number of resources cached per thread, 0 to disable
+     * @return the updated object
+     */
+    public Options setThreadCacheSize(int threadCacheSize) {
+      Preconditions.checkArgument(threadCacheSize >= 0);
+      mThreadCacheSize = threadCacheSize;
+      return this;
+    }
+
+    /**
+     * @return whether resources are created in the background only
+     */
+    public boolean isAsyncCreation() {
+      return mAsyncCreation;
+    }
+
+    /**
+     * @param asyncCreation whether to create resources in the background only
+     * @return the updated object
+     */
+    public Options setAsyncCreation(boolean asyncCreation) {
+      mAsyncCreation = asyncCreation;
+      return this;
+    }
+
+    /**
+     * @return the executor creating resources in the background, null for the default one
+     */
+    public Executor getCreationExecutor() {
+      return mCreationExecutor;
+    }
+
+    /**
+     * @param creationExecutor the executor creating resources in the background and serving
+     *                         the queued asynchronous requests, null to use a cached thread
+     *                         pool shared by the pools
+     * @return the updated object
+     */
+    public Options setCreationExecutor(Executor creationExecutor) {
+      mCreationExecutor = creationExecutor;
+      return this;
+    }
+
+    /**
+     * @return the name tagged on the metrics, null if metrics are disabled
+     */
+    @Nullable
+    public String getMetricsName() {
+      return mMetricsName;
+    }
+
+    /**
+     * Enables the {@link PoolMetrics} of the pool. Pools recording metrics at the same time must
+     * use different names.
+     *
+     * @param metricsName the name tagged on the metrics, null to disable metrics
+     * @return the updated object
+     */
+    public Options setMetricsName(@Nullable String metricsName) {
+      mMetricsName = metricsName;
+      return this;
+    }
+
+    /**
+     * @return whether adaptive sizing is enabled
+     */
+    public boolean isAdaptiveSizing() {
+      return mAdaptiveSizing;
+    }
+
+    /**
+     * @param adaptiveSizing whether the effective capacities follow the load
+     * @return the updated object
+     */
+    public Options setAdaptiveSizing(boolean adaptiveSizing) {
+      mAdaptiveSizing = adaptiveSizing;
+      return this;
+    }
+
+    /**
+     * @return the interval of the adaptive sizing adjustments
+     */
+    public long getAdaptiveSizingIntervalMs() {
+      return mAdaptiveSizingIntervalMs;
+    }
+
+    /**
+     * @param adaptiveSizingIntervalMs the interval of the adaptive sizing adjustments
+     * @return the updated object
+     */
+    public Options setAdaptiveSizingIntervalMs(long adaptiveSizingIntervalMs) {
+      Preconditions.checkArgument(adaptiveSizingIntervalMs > 0);
+      mAdaptiveSizingIntervalMs = adaptiveSizingIntervalMs;
+      return this;
+    }
+
+    /**
+     * @return the fraction of the effective max capacity adaptive sizing aims to have in use
+     */
+    public double getTargetUtilization() {
+      return mTargetUtilization;
+    }
+
+    /**
+     * @param targetUtilization the fraction of the effective max capacity adaptive sizing aims
+     *                          to have in use
+     * @return the updated object
+     */
+    public Options setTargetUtilization(double targetUtilization) {
+      Preconditions.checkArgument(targetUtilization > 0 && targetUtilization <= 1);
+      mTargetUtilization = targetUtilization;
+      return this;
+    }
+
+    /**
+     * @return the longest wait for a resource adaptive sizing accepts
+     */
+    public long getTargetAcquireWaitMs() {
+      return mTargetAcquireWaitMs;
+    }
+
+    /**
+     * @param targetAcquireWaitMs the longest wait for a resource adaptive sizing accepts before
+     *                            growing the pool
+     * @return the updated object
+     */
+    public Options setTargetAcquireWaitMs(long targetAcquireWaitMs) {
+      Preconditions.checkArgument(targetAcquireWaitMs >= 0);
+      mTargetAcquireWaitMs = targetAcquireWaitMs;
+      return this;
+    }
+
+    /**
+     * @return the health check policy
+     */
+    public HealthCheckPolicy getHealthCheckPolicy() {
+      return mHealthCheckPolicy;
+    }
+
+    /**
+     * @param healthCheckPolicy the health check policy
+     * @return the updated object
+     */
+    public Options setHealthCheckPolicy(HealthCheckPolicy healthCheckPolicy) {
+      mHealthCheckPolicy = Preconditions.checkNotNull(healthCheckPolicy, "healthCheckPolicy");
+      return this;
+    }
+
+    /**
+     * @return how long a resource must have been idle before it is checked
+     */
+    public long getHealthCheckIdleThresholdMs() {
+      return mHealthCheckIdleThresholdMs;
+    }
+
+    /**
+     * @param healthCheckIdleThresholdMs how long a resource must have been idle before it is
+     *                                   checked
+     * @return the updated object
+     */
+    public Options setHealthCheckIdleThresholdMs(long healthCheckIdleThresholdMs) {
+      Preconditions.checkArgument(healthCheckIdleThresholdMs >= 0);
+      mHealthCheckIdleThresholdMs = healthCheckIdleThresholdMs;
+      return this;
+    }
+
+    /**
+     * @return the interval of the background health checks
+     */
+    public long getHealthCheckIntervalMs() {
+      return mHealthCheckIntervalMs;
+    }
+
+    /**
+     * @param healthCheckIntervalMs the interval of the background health checks
+     * @return the updated object
+     */
+    public Options setHealthCheckIntervalMs(long healthCheckIntervalMs) {
+      Preconditions.checkArgument(healthCheckIntervalMs > 0);
+      mHealthCheckIntervalMs = healthCheckIntervalMs;
+      return this;
+    }
+
+    /**
+     * @return the max number of resources being created at the same time
+     */
+    public int getMaxConcurrentCreations() {
+      return mMaxConcurrentCreations;
+    }
+
+    /**
+     * Bounds the creations in flight, so a burst of cold requests does not open a connection
+     * each. Acquirers over the bound wait for a resource instead.
+     *
+     * @param maxConcurrentCreations the max number of resources being created at the same time
+     * @return the updated object
+     */
+    public Options setMaxConcurrentCreations(int maxConcurrentCreations) {
+      Preconditions.checkArgument(maxConcurrentCreations >= 1);
+      mMaxConcurrentCreations = maxConcurrentCreations;
+      return this;
+    }
+
+    /**
+     * @return the number of idle resources created ahead of demand
+     */
+    public int getPrewarmIdleCount() {
+      return mPrewarmIdleCount;
+    }
+
+    /**
+     * Keeps this many idle resources ready, within the max capacity, by creating them in the
+     * background when the pool starts, when acquisitions bring the idle count below it and on
+     * every gc. The gc does not collect idle resources below this count.
+     *
+     * @param prewarmIdleCount the number of idle resources to keep, 0 to disable
+     * @return the updated object
+     */
+    public Options setPrewarmIdleCount(int prewarmIdleCount) {
+      Preconditions.checkArgument(prewarmIdleCount >= 0);
+      mPrewarmIdleCount = prewarmIdleCount;
+      return this;
+    }
+
     /**
      * @param maxCapacity the max capacity
      * @return the updated object
@@ -227,6 +568,28 @@ public abstract class DynamicResourcePool<T> implements Pool<T> {
 
   private final ReentrantLock mLock = new ReentrantLock();
   private final Condition mNotEmpty = mLock.newCondition();
+  /**
+   * The number of threads blocked in {@link #acquire}, lets releases skip the thread cache and
+   * the metrics and adaptive sizing see the demand. Only updated by blocking acquisitions.
+   */
+  private final AtomicInteger mNumWaiters = new AtomicInteger();
+  /**
+   * The number of resources in {@link #mResources}, slots are reserved before a resource is
+   * added so the pool never exceeds the max capacity.
+   */
+  private final AtomicInteger mNumResources = new AtomicInteger();
+  /**
+   * Requests of {@link #acquireAsync()} waiting for a resource, completed on the creation
+   * executor once a resource is released or created.
+   */
+  private final ConcurrentLinkedQueue<CompletableFuture<T>> mAsyncWaiters =
+      new ConcurrentLinkedQueue<>();
+  /**
+   * Whether a task serving {@link #mAsyncWaiters} is queued on the creation executor and has
+   * not started yet.
+   */
+  private final AtomicBoolean mDrainScheduled = new AtomicBoolean();
+  private volatile boolean mClosed;
   /**
    * The max capacity.
    */
@@ -239,9 +602,41 @@ public abstract class DynamicResourcePool<T> implements Pool<T> {
   @GuardedBy("mLock")
   private final Deque<ResourceInternal<T>> mAvailableResources;
   protected final ConcurrentHashMap<T, ResourceInternal<T>> mResources;
+  private final int mThreadCacheSize;
+  /**
+   * The resources cached by each thread, most recently released first. Entries taken by other
+   * threads stay in the list until the owner finds them claimed. Null if caches are disabled.
+   */
+  private final ThreadLocal<Deque<ResourceInternal<T>>> mThreadCache;
+  /**
+   * The number of resources parked in thread caches, lets the pool skip the walk over all its
+   * resources looking for one while nothing is cached. Incremented after a resource is cached
+   * and decremented after it is claimed, so it may briefly be off by the releases in flight,
+   * each of which checks for waiters afterwards.
+   */
+  private final AtomicInteger mNumCached = new AtomicInteger();
+  private final boolean mAsyncCreation;
+  private final Executor mCreationExecutor;
+  private final Semaphore mCreationPermits;
+  /**
+   * The number of background creations in flight, their slots are already reserved in
+   * {@link #mNumResources}.
+   */
+  private final AtomicInteger mPendingCreations = new AtomicInteger();
+  private final int mPrewarmIdleCount;
+  private final HealthCheckPolicy mHealthCheckPolicy;
+  private final long mHealthCheckIdleThresholdMs;
   private final Counter mMetricCounter;
   private ScheduledExecutorService mExecutor;
   private ScheduledFuture<?> mGcFuture;
+  private ScheduledFuture<?> mHealthCheckFuture;
+  private ScheduledFuture<?> mPrewarmFuture;
+  @Nullable
+  private final PoolMetrics mMetrics;
+  @Nullable
+  private final PoolSizeController mSizeController;
+  private final PooledResource.Factory<T> mHandles = new PooledResource.Factory<>(this);
+  private ScheduledFuture<?> mSizingFuture;
   protected Clock mClock = new SystemClock();
 
   public DynamicResourcePool(Options options) {
@@ -252,39 +647,90 @@ public abstract class DynamicResourcePool<T> implements Pool<T> {
     mMinCapacity = options.getMinCapacity();
     mSelectionPolicy = options.getSelectionPolicy();
     mAvailableResources = new ArrayDeque<>();
+    mThreadCacheSize = options.getThreadCacheSize();
+    mThreadCache = mThreadCacheSize > 0 ? ThreadLocal.withInitial(ArrayDeque::new) : null;
+    mAsyncCreation = options.isAsyncCreation();
+    mCreationExecutor = options.getCreationExecutor() != null
+        ? options.getCreationExecutor() : CREATION_EXECUTOR;
+    mCreationPermits = new Semaphore(options.getMaxConcurrentCreations());
+    mPrewarmIdleCount = options.getPrewarmIdleCount();
+    if (mPrewarmIdleCount > 0) {
+      // Delayed like the gc, so the subclass is constructed before its resources are created.
+      mPrewarmFuture =
+          mExecutor.schedule(this::prewarm, options.getInitialDelayMs(), TimeUnit.MILLISECONDS);
+    }
+    mHealthCheckPolicy = options.getHealthCheckPolicy();
+    mHealthCheckIdleThresholdMs = options.getHealthCheckIdleThresholdMs();
+    if (mHealthCheckPolicy == HealthCheckPolicy.BACKGROUND) {
+      mHealthCheckFuture = mExecutor.scheduleWithFixedDelay(this::checkIdleResources,
+          options.getInitialDelayMs(), options.getHealthCheckIntervalMs(), TimeUnit.MILLISECONDS);
+    }
+    if (options.isAdaptiveSizing()) {
+      mSizeController = new PoolSizeController(mMinCapacity, mMaxCapacity,
+          options.getTargetUtilization(), options.getTargetAcquireWaitMs());
+      mSizingFuture = mExecutor.scheduleWithFixedDelay(this::adjustCapacity,
+          options.getAdaptiveSizingIntervalMs(), options.getAdaptiveSizingIntervalMs(),
+          TimeUnit.MILLISECONDS);
+    } else {
+      mSizeController = null;
+    }
+    if (options.getMetricsName() != null) {
+      mMetrics = new PoolMetrics(options.getMetricsName());
+      mMetrics.registerGauges(this::getIdleCount,
+          () -> Math.max(mNumResources.get() - getIdleCount(), 0),
+          () -> mNumWaiters.get() + mAsyncWaiters.size());
+    } else {
+      mMetrics = null;
+    }
     mGcFuture = mExecutor.scheduleAtFixedRate(() -> {
       List<T> resourcesToGc = new ArrayList<>();
 
       try (LockResource lockResource = new LockResource(mLock)) {
         //资源总量小于mMinCapacity， 此时不用执行回收动作
-        if (mResources.size() <= mMinCapacity) {
+        int minCapacity = getMinCapacity();
+        if (mNumResources.get() <= minCapacity) {
+          prewarm();
           return;
         }
-        int currentSize = mResources.size();
+        int idle = mAvailableResources.size();
         Iterator<ResourceInternal<T>> iterator = mAvailableResources.iterator();
-        while (iterator.hasNext()) {
+        while (iterator.hasNext() && idle > mPrewarmIdleCount) {
           ResourceInternal<T> next = iterator.next();
           if (shouldGc(next)) {
-            resourcesToGc.add(next.mResource);
             iterator.remove();
+            idle--;
+            resourcesToGc.add(next.mResource);
             mResources.remove(next.mResource);
             mMetricCounter.dec();
-            currentSize--;
-            if (currentSize <= mMinCapacity) {
+            if (mNumResources.decrementAndGet() <= minCapacity) {
               break;
             }
           }
         }
+        if (mNumCached.get() > 0) {
+          for (ResourceInternal<T> next : mResources.values()) {
+            if (mNumResources.get() <= minCapacity) {
+              break;
+            }
+            if (next.mCached.get() && shouldGc(next) && claimCached(next)) {
+              resourcesToGc.add(next.mResource);
+              mResources.remove(next.mResource);
+              mMetricCounter.dec();
+              mNumResources.decrementAndGet();
+            }
+          }
+        }
       }
 
       for (T resource : resourcesToGc) {
         LOG.debug("Resource {} is garbage collected.", resource);
         try {
-          closeResource(resource);
+          destroy(resource);
         } catch (IOException e) {
           LOG.warn("Failed to close resource {}.", resource, e);
         }
       }
+      prewarm();
     }, options.getInitialDelayMs(), options.getGcIntervalMs(), TimeUnit.MILLISECONDS);
   }
 
@@ -299,97 +745,611 @@ public abstract class DynamicResourcePool<T> implements Pool<T> {
   }
 
   public T acquire(long time, TimeUnit unit) throws TimeoutException, IOException {
+    if (mMetrics == null) {
+      return acquireInternal(time, unit);
+    }
+    long startNanos = System.nanoTime();
+    try {
+      T resource = acquireInternal(time, unit);
+      mMetrics.recordAcquire(System.nanoTime() - startNanos);
+      return resource;
+    } catch (TimeoutException e) {
+      mMetrics.recordTimeout();
+      throw e;
+    }
+  }
+
+  private T acquireInternal(long time, TimeUnit unit) throws TimeoutException, IOException {
     long endTimeMs = mClock.millis() + unit.toMillis(time);
-    ResourceInternal<T> resource = poll();
+    ResourceInternal<T> resource = pollThreadCache();
+    if (resource == null) {
+      resource = poll();
+    }
+    if (resource == null) {
+      // Reuse a resource parked in another thread's cache rather than growing the pool.
+      resource = takeFromThreadCaches();
+    }
     if (resource != null) {
-      return checkHealthyAndRetry(resource.mResource, endTimeMs);
+      if (mPrewarmIdleCount > 0 && getAvailableCount() < mPrewarmIdleCount) {
+        prewarm();
+      }
+      return checkHealthyAndRetry(resource, endTimeMs);
     }
 
     if (!isFull()) {
       // If the resource pool is empty but capacity is not yet full, create a new resource.
-      T newResource = createNewResource();
-      ResourceInternal<T> resourceInternal = new ResourceInternal<>(newResource);
-      if (add(resourceInternal)) {
+      T newResource = tryCreate();
+      if (newResource != null) {
         return newResource;
-      } else {
-        closeResource(newResource);
       }
     }
 
     // Otherwise, try to take a resource from the pool, blocking if none are available.
-    try (LockResource lockResource = new LockResource(mLock)) {
-      while (true) {
-        resource = poll();
-        if (resource != null) {
-          break;
+    return awaitResource(endTimeMs);
+  }
+
+  /**
+   * Blocks until a resource is released, or until the caller may create one. Kept apart from
+   * {@link #acquireInternal} so the path serving idle resources stays small.
+   *
+   * @param endTimeMs the end time to wait till
+   * @return the resource
+   * @throws TimeoutException if it times out to wait for a resource
+   */
+  private T awaitResource(long endTimeMs) throws TimeoutException, IOException {
+    ResourceInternal<T> resource = null;
+    long waitStartNanos = mSizeController != null ? System.nanoTime() : 0;
+    // Registered before polling, so a release after a failed poll sees it and signals.
+    mNumWaiters.incrementAndGet();
+    try {
+      while (resource == null) {
+        // The lock is held across the wakeups, only released to create a resource.
+        try (LockResource lockResource = new LockResource(mLock)) {
+          while ((resource = pollLocked()) == null && (resource = takeFromThreadCaches()) == null
+              && !canCreateNow()) {
+            awaitNotEmpty(endTimeMs);
+          }
         }
-        long currTimeMs = mClock.millis();
-        try {
-          // one should use t1-t0<0, not t1<t0, because of the possibility of numerical overflow.
-          // For further detail see: https://docs.oracle.com/javase/8/docs/api/java/lang/System.html
-          if (endTimeMs - currTimeMs <= 0 || !mNotEmpty
-              .await(endTimeMs - currTimeMs, TimeUnit.MILLISECONDS)) {
-            throw new TimeoutException("Acquire resource times out.");
+        if (resource == null) {
+          // Created outside of the lock, a failure is thrown to the caller.
+          T newResource = createNow();
+          if (newResource != null) {
+            return newResource;
           }
-        } catch (InterruptedException e) {
-          // TODO(calvin): Propagate the interrupted exception instead of converting to IOException
-          Thread.currentThread().interrupt();
-          throw new IOException("Thread interrupted while acquiring client from pool: " + this);
         }
       }
+    } finally {
+      mNumWaiters.decrementAndGet();
+    }
+    if (mSizeController != null) {
+      mSizeController.recordWait(System.nanoTime() - waitStartNanos);
+    }
+    return checkHealthyAndRetry(resource, endTimeMs);
+  }
+
+  /**
+   * Waits for a resource to be released or a creation to end, must be called with the lock.
+   *
+   * @param endTimeMs the end time to wait till
+   * @throws TimeoutException if it times out to wait for a resource
+   */
+  private void awaitNotEmpty(long endTimeMs) throws TimeoutException, IOException {
+    long currTimeMs = mClock.millis();
+    try {
+      // one should use t1-t0<0, not t1<t0, because of the possibility of numerical overflow.
+      // For further detail see: https://docs.oracle.com/javase/8/docs/api/java/lang/System.html
+      if (endTimeMs - currTimeMs <= 0 || !mNotEmpty
+          .await(endTimeMs - currTimeMs, TimeUnit.MILLISECONDS)) {
+        if (mSizeController != null) {
+          mSizeController.recordTimeout();
+        }
+        throw new TimeoutException("Acquire resource times out.");
+      }
+    } catch (InterruptedException e) {
+      // TODO(calvin): Propagate the interrupted exception instead of converting to
+      // IOException
+      Thread.currentThread().interrupt();
+      throw new IOException("Thread interrupted while acquiring client from pool: " + this);
     }
-    return checkHealthyAndRetry(resource.mResource, endTimeMs);
+  }
+
+  /**
+   * Whether a blocked acquirer should create a resource itself: the pool is not full, a
+   * creation permit is free, and in async creation mode no background creation is in flight
+   * which would serve it, e.g. because the last one failed.
+   *
+   * @return whether to create a resource
+   */
+  private boolean canCreateNow() {
+    return !isFull() && mCreationPermits.availablePermits() > 0
+        && (!mAsyncCreation || mPendingCreations.get() == 0);
   }
 
   @Override
   public void release(T resource) {
     // We don't need to acquire mLock here because the resource is guaranteed not to be removed
     // if it is not available (i.e. not in mAvailableResources list).
-    if (!mResources.containsKey(resource)) {
+    ResourceInternal<T> resourceInternal = mResources.get(resource);
+    if (resourceInternal == null) {
       throw new IllegalArgumentException(
           "Resource " + resource.toString() + " was not acquired from this resource pool.");
     }
-    ResourceInternal<T> resourceInternal = mResources.get(resource);
     resourceInternal.setLastAccessTimeMs(mClock.millis());
+    if (mThreadCache != null && addToThreadCache(resourceInternal)) {
+      return;
+    }
+    offerIdle(resourceInternal);
+  }
+
+  /**
+   * Makes a resource idle and serves the waiters with it. Once the pool is closed, the resource
+   * is closed instead, so resources released or created after {@link #close()} do not leak.
+   *
+   * @param resourceInternal the resource
+   */
+  private void offerIdle(ResourceInternal<T> resourceInternal) {
+    boolean closed;
     try {
       mLock.lock();
-      mAvailableResources.addFirst(resourceInternal);
-      mNotEmpty.signal();
+      // Checked under the lock, close() sets the flag before taking the idle resources with it.
+      closed = mClosed;
+      if (!closed) {
+        mAvailableResources.addFirst(resourceInternal);
+        mNotEmpty.signal();
+      }
     } finally {
       mLock.unlock();
     }
+    if (closed) {
+      remove(resourceInternal.mResource);
+      try {
+        destroy(resourceInternal.mResource);
+      } catch (IOException e) {
+        LOG.warn("Failed to close resource {}.", resourceInternal.mResource, e);
+      }
+      return;
+    }
+    scheduleDrain();
+  }
+
+  /**
+   * Makes a resource taken from the pool idle again, unless it was removed from the pool
+   * meanwhile.
+   *
+   * @param resource the resource
+   */
+  private void offerIdle(T resource) {
+    ResourceInternal<T> resourceInternal = mResources.get(resource);
+    if (resourceInternal != null) {
+      offerIdle(resourceInternal);
+    }
+  }
+
+  /**
+   * Creates a resource for the caller, or in async creation mode starts a background creation
+   * whose resource will go to the first waiter.
+   *
+   * @return the new resource, null if none was created on this thread
+   */
+  private T tryCreate() throws IOException {
+    if (mAsyncCreation) {
+      createInBackground();
+      return null;
+    }
+    return createNow();
+  }
+
+  /**
+   * Creates a resource on the calling thread if a creation permit is free.
+   *
+   * @return the new resource, null if no permit was free or the pool filled up meanwhile
+   */
+  private T createNow() throws IOException {
+    if (!mCreationPermits.tryAcquire()) {
+      return null;
+    }
+    try {
+      T newResource = create();
+      if (add(new ResourceInternal<>(newResource))) {
+        return newResource;
+      }
+      destroy(newResource);
+      return null;
+    } finally {
+      mCreationPermits.release();
+      // Requests which found no free permit create a resource themselves, in particular when
+      // this creation failed.
+      signalWaiters();
+      scheduleDrain();
+    }
+  }
+
+  /**
+   * Wakes up the acquirers blocked on {@link #mNotEmpty} so they check the pool again.
+   */
+  private void signalWaiters() {
+    if (mNumWaiters.get() > 0) {
+      try (LockResource lockResource = new LockResource(mLock)) {
+        mNotEmpty.signalAll();
+      }
+    }
+  }
+
+  /**
+   * Starts creating a resource on the creation executor, the resource is offered to the waiters
+   * like a released one once created.
+   *
+   * @return whether a creation was started
+   */
+  private boolean createInBackground() {
+    if (mClosed || !mCreationPermits.tryAcquire()) {
+      return false;
+    }
+    if (!reserve()) {
+      mCreationPermits.release();
+      return false;
+    }
+    mPendingCreations.incrementAndGet();
+    try {
+      mCreationExecutor.execute(() -> {
+        boolean failed = false;
+        try {
+          if (mClosed) {
+            // Closed while the creation was queued.
+            mNumResources.decrementAndGet();
+            return;
+          }
+          ResourceInternal<T> resourceInternal = new ResourceInternal<>(create());
+          register(resourceInternal);
+          // Closes the resource if the pool was closed meanwhile.
+          offerIdle(resourceInternal);
+        } catch (IOException | RuntimeException e) {
+          mNumResources.decrementAndGet();
+          LOG.warn("Failed to create a resource in the background for {}.", this, e);
+          // Fail a request rather than leaving it to wait for a resource which never comes.
+          CompletableFuture<T> waiter = mAsyncWaiters.poll();
+          if (waiter != null) {
+            failAsync(waiter, e);
+          }
+          failed = true;
+        } finally {
+          mPendingCreations.decrementAndGet();
+          mCreationPermits.release();
+        }
+        if (failed) {
+          // Blocked acquirers create a resource themselves and get the failure if it recurs,
+          // the other queued requests get another creation.
+          signalWaiters();
+          scheduleDrain();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      mNumResources.decrementAndGet();
+      mPendingCreations.decrementAndGet();
+      mCreationPermits.release();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Starts creating resources in the background until the idle and pending resources reach
+   * the prewarm count.
+   */
+  private void prewarm() {
+    if (mPrewarmIdleCount == 0) {
+      return;
+    }
+    int missing = mPrewarmIdleCount - getAvailableCount() - mPendingCreations.get();
+    while (missing-- > 0 && createInBackground()) {
+      // Keep going until enough creations are in flight or the pool is full.
+    }
+  }
+
+  /**
+   * @return the number of resources in the shared idle list
+   */
+  private int getAvailableCount() {
+    try (LockResource lockResource = new LockResource(mLock)) {
+      return mAvailableResources.size();
+    }
+  }
+
+  @Override
+  public PooledResource<T> acquireCloseable() throws IOException {
+    return mHandles.get(acquire());
+  }
+
+  @Override
+  public PooledResource<T> acquireCloseable(long time, TimeUnit unit)
+      throws TimeoutException, IOException {
+    return mHandles.get(acquire(time, unit));
+  }
+
+  @Override
+  public CompletableFuture<T> acquireAsync() {
+    CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      T resource = tryAcquireNow();
+      if (resource != null) {
+        future.complete(resource);
+        return future;
+      }
+    } catch (IOException | RuntimeException e) {
+      future.completeExceptionally(e);
+      return future;
+    }
+    if (mMetrics != null) {
+      long startNanos = System.nanoTime();
+      future.whenComplete((resource, e) -> {
+        if (e == null) {
+          mMetrics.recordAcquire(System.nanoTime() - startNanos);
+        }
+      });
+    }
+    mAsyncWaiters.add(future);
+    if (mClosed) {
+      failAsyncWaiters(new IOException("pool closed"));
+    } else {
+      // A resource may have been released before the request was queued.
+      scheduleDrain();
+    }
+    return future;
+  }
+
+  /**
+   * Takes a healthy idle resource, or creates one if the pool is not full, without blocking.
+   *
+   * @return the resource, null if every resource is in use
+   */
+  private T tryAcquireNow() throws IOException {
+    while (true) {
+      ResourceInternal<T> resource = pollThreadCache();
+      if (resource == null) {
+        resource = poll();
+      }
+      if (resource == null) {
+        resource = takeFromThreadCaches();
+      }
+      if (resource == null) {
+        if (!isFull()) {
+          return tryCreate();
+        }
+        return null;
+      }
+      if (!needsHealthCheck(resource) || isHealthy(resource.mResource)) {
+        return resource.mResource;
+      }
+      discard(resource.mResource);
+    }
+  }
+
+  /**
+   * Serves the queued asynchronous requests on the creation executor, so the threads releasing
+   * resources never run the health checks and creations this may take. Both releases and new
+   * requests publish first and schedule second, and the task clears its flag before draining,
+   * so no request is left waiting while a resource is idle.
+   */
+  private void scheduleDrain() {
+    if (mAsyncWaiters.isEmpty() || !mDrainScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      mCreationExecutor.execute(() -> {
+        mDrainScheduled.set(false);
+        drainAsyncWaiters();
+      });
+    } catch (RejectedExecutionException e) {
+      mDrainScheduled.set(false);
+      failAsyncWaiters(new IOException("Failed to serve the queued requests of " + this, e));
+    }
+  }
+
+  /**
+   * @param e the exception to complete the queued asynchronous requests with
+   */
+  private void failAsyncWaiters(IOException e) {
+    CompletableFuture<T> waiter;
+    while ((waiter = mAsyncWaiters.poll()) != null) {
+      waiter.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Hands the idle resources to the queued asynchronous requests, oldest first, run on the
+   * creation executor.
+   */
+  private void drainAsyncWaiters() {
+    while (!mAsyncWaiters.isEmpty()) {
+      if (mClosed) {
+        failAsyncWaiters(new IOException("pool closed"));
+        return;
+      }
+      T resource;
+      try {
+        resource = tryAcquireNow();
+      } catch (IOException | RuntimeException e) {
+        // Failed to create a resource, fail the oldest request rather than leaving it waiting.
+        CompletableFuture<T> waiter = mAsyncWaiters.poll();
+        if (waiter != null) {
+          failAsync(waiter, e);
+        }
+        continue;
+      }
+      if (resource == null) {
+        return;
+      }
+      CompletableFuture<T> waiter;
+      do {
+        waiter = mAsyncWaiters.poll();
+      } while (waiter != null && waiter.isDone()); // Cancelled while queued.
+      if (waiter == null) {
+        // Every queued request was cancelled, skip the cache of the executor thread.
+        offerIdle(resource);
+        return;
+      }
+      completeAsync(waiter, resource);
+    }
+  }
+
+  /**
+   * Completes a queued request off the creation executor, whose threads would otherwise run the
+   * callbacks of the future. If the request is cancelled meanwhile the resource goes back idle.
+   *
+   * @param waiter the request
+   * @param resource the resource taken for it
+   */
+  private void completeAsync(CompletableFuture<T> waiter, T resource) {
+    CompletableFuture.runAsync(() -> {
+      if (!waiter.complete(resource)) {
+        offerIdle(resource);
+      }
+    });
+  }
+
+  /**
+   * Fails a queued request off the creation executor, see {@link #completeAsync}.
+   *
+   * @param waiter the request
+   * @param e the exception to complete it with
+   */
+  private static void failAsync(CompletableFuture<?> waiter, Throwable e) {
+    CompletableFuture.runAsync(() -> waiter.completeExceptionally(e));
   }
 
   @Override
   public void close() throws IOException {
+    mClosed = true;
+    if (mPrewarmFuture != null) {
+      mPrewarmFuture.cancel(true);
+    }
+    failAsyncWaiters(new IOException("pool closed"));
     try {
       mLock.lock();
-      if (mAvailableResources.size() != mResources.size()) {
+      List<ResourceInternal<T>> available = new ArrayList<>(mAvailableResources.size());
+      ResourceInternal<T> resourceInternal;
+      while ((resourceInternal = mAvailableResources.pollFirst()) != null) {
+        available.add(resourceInternal);
+      }
+      while ((resourceInternal = takeFromThreadCaches()) != null) {
+        available.add(resourceInternal);
+      }
+      if (available.size() != mResources.size()) {
         LOG.warn("{} resources are not released when closing the resource pool.",
-            mResources.size() - mAvailableResources.size());
+            mResources.size() - available.size());
       }
-      for (ResourceInternal<T> resourceInternal : mAvailableResources) {
-        closeResource(resourceInternal.mResource);
+      for (ResourceInternal<T> idle : available) {
+        destroy(idle.mResource);
       }
-      mAvailableResources.clear();
     } finally {
       mLock.unlock();
     }
+    if (mMetrics != null) {
+      mMetrics.removeGauges();
+    }
     mGcFuture.cancel(true);
+    if (mHealthCheckFuture != null) {
+      mHealthCheckFuture.cancel(true);
+    }
+    if (mSizingFuture != null) {
+      mSizingFuture.cancel(true);
+    }
   }
 
   private ResourceInternal<T> poll() {
     try (LockResource lockResource = new LockResource(mLock)) {
-      switch (mSelectionPolicy) {
-        case FIFO:
-          return mAvailableResources.pollLast();
-        case LIFO:
-          return mAvailableResources.pollFirst();
-        default:
-          throw new UnsupportedOperationException(
-              "Policy " + mSelectionPolicy + " is not supported!");
+      return pollLocked();
+    }
+  }
+
+  /**
+   * @return a resource from the shared idle list, null if it is empty, must be called with the
+   *         lock
+   */
+  private ResourceInternal<T> pollLocked() {
+    switch (mSelectionPolicy) {
+      case FIFO:
+        return mAvailableResources.pollLast();
+      case LIFO:
+        return mAvailableResources.pollFirst();
+      default:
+        throw new UnsupportedOperationException(
+            "Policy " + mSelectionPolicy + " is not supported!");
+    }
+  }
+
+  /**
+   * @return a resource from the cache of the current thread, null if there is none
+   */
+  private ResourceInternal<T> pollThreadCache() {
+    if (mThreadCache == null) {
+      return null;
+    }
+    Deque<ResourceInternal<T>> cache = mThreadCache.get();
+    ResourceInternal<T> resource;
+    while ((resource = cache.pollFirst()) != null) {
+      if (claimCached(resource)) {
+        return resource;
       }
+      // Taken by another thread or the GC meanwhile.
     }
+    return null;
+  }
+
+  /**
+   * Parks a released resource in the cache of the current thread.
+   *
+   * @return whether the resource was cached, if not it must go to the shared idle list
+   */
+  private boolean addToThreadCache(ResourceInternal<T> resource) {
+    Deque<ResourceInternal<T>> cache = mThreadCache.get();
+    if (cache.size() >= mThreadCacheSize) {
+      cache.removeIf(cached -> !cached.mCached.get());
+      if (cache.size() >= mThreadCacheSize) {
+        return false;
+      }
+    }
+    resource.mCached.set(true);
+    cache.addFirst(resource);
+    mNumCached.incrementAndGet();
+    // Checked after publishing the resource, a waiter registering or a close() concurrently
+    // either is seen here or finds the resource in takeFromThreadCaches.
+    if ((mNumWaiters.get() > 0 || !mAsyncWaiters.isEmpty() || mClosed)
+        && claimCached(resource)) {
+      cache.pollFirst();
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Takes a resource cached by any thread, used once the shared idle list is empty.
+   *
+   * @return the resource, null if no resource is cached
+   */
+  private ResourceInternal<T> takeFromThreadCaches() {
+    if (mNumCached.get() <= 0) {
+      return null;
+    }
+    for (ResourceInternal<T> resource : mResources.values()) {
+      if (resource.mCached.get() && claimCached(resource)) {
+        return resource;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Takes a resource out of the thread cache it is parked in.
+   *
+   * @return whether the caller now owns the resource, false if someone else claimed it first
+   */
+  private boolean claimCached(ResourceInternal<T> resource) {
+    if (resource.mCached.compareAndSet(true, false)) {
+      mNumCached.decrementAndGet();
+      return true;
+    }
+    return false;
   }
 
   /**
@@ -401,48 +1361,200 @@ public abstract class DynamicResourcePool<T> implements Pool<T> {
    * @return the resource
    * @throws TimeoutException if it times out to wait for a resource
    */
-  private T checkHealthyAndRetry(T resource, long endTimeMs) throws TimeoutException, IOException {
-    if (isHealthy(resource)) {
-      return resource;
+  private T checkHealthyAndRetry(ResourceInternal<T> resource, long endTimeMs)
+      throws TimeoutException, IOException {
+    if (!needsHealthCheck(resource) || isHealthy(resource.mResource)) {
+      return resource.mResource;
     } else {
-      LOG.debug("Clearing unhealthy resource {}.", resource);
-      remove(resource);
-      closeResource(resource);
-      return acquire(endTimeMs - mClock.millis(), TimeUnit.MILLISECONDS);
+      discard(resource.mResource);
+      return acquireInternal(endTimeMs - mClock.millis(), TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * @param resource a resource taken from the idle resources
+   * @return whether the resource must be checked before it is handed out
+   */
+  private boolean needsHealthCheck(ResourceInternal<T> resource) {
+    switch (mHealthCheckPolicy) {
+      case ON_ACQUIRE:
+        return true;
+      case AFTER_IDLE:
+        return mClock.millis() - resource.getLastAccessTimeMs() >= mHealthCheckIdleThresholdMs;
+      case BACKGROUND:
+        return false;
+      default:
+        throw new UnsupportedOperationException(
+            "Policy " + mHealthCheckPolicy + " is not supported!");
     }
   }
 
+  /**
+   * Checks the resources idle past the threshold and discards the unhealthy ones, run on the gc
+   * executor with the {@link HealthCheckPolicy#BACKGROUND} policy. Each resource is claimed
+   * before it is checked, so an acquirer never gets a resource being checked.
+   */
+  private void checkIdleResources() {
+    List<ResourceInternal<T>> toCheck = new ArrayList<>();
+    long nowMs = mClock.millis();
+    try (LockResource lockResource = new LockResource(mLock)) {
+      Iterator<ResourceInternal<T>> iterator = mAvailableResources.iterator();
+      while (iterator.hasNext()) {
+        ResourceInternal<T> next = iterator.next();
+        if (nowMs - next.getLastAccessTimeMs() >= mHealthCheckIdleThresholdMs) {
+          iterator.remove();
+          toCheck.add(next);
+        }
+      }
+    }
+    if (mNumCached.get() > 0) {
+      for (ResourceInternal<T> next : mResources.values()) {
+        if (next.mCached.get() && nowMs - next.getLastAccessTimeMs() >= mHealthCheckIdleThresholdMs
+            && claimCached(next)) {
+          toCheck.add(next);
+        }
+      }
+    }
+    boolean discarded = false;
+    for (ResourceInternal<T> resource : toCheck) {
+      boolean healthy;
+      try {
+        healthy = isHealthy(resource.mResource);
+      } catch (RuntimeException e) {
+        LOG.warn("Failed to check resource {}.", resource.mResource, e);
+        healthy = false;
+      }
+      if (healthy) {
+        // Keeps its last access time, the check does not make it less idle for the gc.
+        offerIdle(resource);
+        continue;
+      }
+      discarded = true;
+      try {
+        discard(resource.mResource);
+      } catch (IOException e) {
+        LOG.warn("Failed to close resource {}.", resource.mResource, e);
+      }
+    }
+    if (discarded) {
+      prewarm();
+    }
+  }
+
+  /**
+   * Removes an unhealthy resource from the pool and closes it.
+   *
+   * @param resource the resource
+   */
+  private void discard(T resource) throws IOException {
+    LOG.debug("Clearing unhealthy resource {}.", resource);
+    if (mMetrics != null) {
+      mMetrics.recordUnhealthy();
+    }
+    remove(resource);
+    destroy(resource);
+  }
+
+  private T create() throws IOException {
+    long startNanos = mSizeController != null ? System.nanoTime() : 0;
+    T resource = createNewResource();
+    if (mSizeController != null) {
+      mSizeController.recordCreation(System.nanoTime() - startNanos);
+    }
+    if (mMetrics != null) {
+      mMetrics.recordCreated();
+    }
+    return resource;
+  }
+
+  private void destroy(T resource) throws IOException {
+    if (mMetrics != null) {
+      mMetrics.recordDestroyed();
+    }
+    closeResource(resource);
+  }
+
+  /**
+   * @return the number of idle resources, shared or in thread caches
+   */
+  private int getIdleCount() {
+    return getAvailableCount() + Math.max(mNumCached.get(), 0);
+  }
+
   /**
    * Removes an existing resource from the pool.
    *
    * @param resource
    */
   private void remove(T resource) {
-    try {
-      mLock.lock();
-      mResources.remove(resource);
+    if (mResources.remove(resource) != null) {
+      mNumResources.decrementAndGet();
       mMetricCounter.dec();
-    } finally {
-      mLock.unlock();
     }
   }
 
   private boolean isFull() {
-    return mResources.size() >= mMaxCapacity;
+    return mNumResources.get() >= getMaxCapacity();
+  }
+
+  /**
+   * @return the effective max capacity
+   */
+  private int getMaxCapacity() {
+    return mSizeController == null ? mMaxCapacity : mSizeController.getMaxCapacity();
+  }
+
+  /**
+   * @return the effective min capacity
+   */
+  private int getMinCapacity() {
+    return mSizeController == null ? mMinCapacity : mSizeController.getMinCapacity();
+  }
+
+  /**
+   * Lets the size controller adjust the effective capacities, run on the gc executor. Requests
+   * blocked when the max capacity grows only wait for releases, so resources are created for
+   * them in the background.
+   */
+  private void adjustCapacity() {
+    int waiters = mNumWaiters.get() + mAsyncWaiters.size();
+    int inUse = Math.max(mNumResources.get() - getIdleCount(), 0);
+    int grown = mSizeController.adjust(inUse, waiters);
+    for (int i = Math.min(grown, waiters); i > 0 && createInBackground(); i--) {
+      // Each new resource is offered to the waiters once created.
+    }
   }
 
   private boolean add(ResourceInternal<T> resource) {
-    try (LockResource lockResource = new LockResource(mLock)) {
-      if (mResources.size() >= mMaxCapacity) {
+    if (!reserve()) {
+      return false;
+    }
+    register(resource);
+    return true;
+  }
+
+  /**
+   * Reserves a slot for a resource about to be added.
+   *
+   * @return whether a slot was reserved, false if the pool is full
+   */
+  private boolean reserve() {
+    while (true) {
+      int numResources = mNumResources.get();
+      if (numResources >= getMaxCapacity()) {
         return false;
-      } else {
-        mResources.put(resource.mResource, resource);
-        mMetricCounter.inc();
+      }
+      if (mNumResources.compareAndSet(numResources, numResources + 1)) {
         return true;
       }
     }
   }
 
+  private void register(ResourceInternal<T> resource) {
+    mResources.put(resource.mResource, resource);
+    mMetricCounter.inc();
+  }
+
   protected abstract Counter getMetricCounter();
 
   protected abstract boolean shouldGc(ResourceInternal<T> resourceInternal);
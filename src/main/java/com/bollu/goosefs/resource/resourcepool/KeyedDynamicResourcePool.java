@@ -0,0 +1,719 @@
+package com.bollu.goosefs.resource.resourcepool;
+
+import com.bollu.goosefs.common.constant.Constants;
+import com.bollu.goosefs.resource.lock.LockResource;
+import com.bollu.goosefs.time.SystemClock;
+import com.codahale.metrics.Counter;
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A pool of resources per key, e.g. connections per remote endpoint, sharing one capacity, one
+ * gc task and one lock for all keys instead of one {@link DynamicResourcePool} each.
+ *
+ * A key with no idle resource creates one while both its own and the global capacity allow.
+ * When only the global capacity is exhausted, the least recently used idle resource of the
+ * other keys is closed to make room. Requests waiting for a resource wait on a condition of
+ * their key, so a release only wakes up a request which can use it. Keys left without resources
+ * are dropped by the gc.
+ *
+ * @param <K> the type of the keys
+ * @param <T> the type of resource this pool manages
+ */
+@ThreadSafe
+public abstract class KeyedDynamicResourcePool<K, T> implements Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(KeyedDynamicResourcePool.class);
+
+  /**
+   * A resource of the pool.
+   */
+  protected final class ResourceInternal {
+    /**
+     * The pool of the key the resource belongs to.
+     */
+    private final SubPool mPool;
+
+    /**
+     * The resource.
+     */
+    private final T mResource;
+
+    /**
+     * The last access time in ms.
+     */
+    private volatile long mLastAccessTimeMs;
+
+    private ResourceInternal(SubPool pool, T resource) {
+      mPool = pool;
+      mResource = resource;
+      mLastAccessTimeMs = mClock.millis();
+    }
+
+    /**
+     * @return the key the resource belongs to
+     */
+    public K getKey() {
+      return mPool.mKey;
+    }
+
+    /**
+     * @return the last access time in ms
+     */
+    public long getLastAccessTimeMs() {
+      return mLastAccessTimeMs;
+    }
+  }
+
+  /**
+   * The resources of a key, guarded by the lock of the pool.
+   */
+  private final class SubPool {
+    private final K mKey;
+    /**
+     * The idle resources of the key, released at the head.
+     */
+    private final Deque<ResourceInternal> mAvailableResources = new ArrayDeque<>();
+    /**
+     * The number of resources of the key, including reserved slots.
+     */
+    private int mNumResources;
+    /**
+     * The number of requests waiting on {@link #mNotEmpty}.
+     */
+    private int mNumWaiters;
+    private final Condition mNotEmpty = mLock.newCondition();
+    @Nullable
+    private final Counter mMetricCounter;
+
+    private SubPool(K key) {
+      mKey = key;
+      mMetricCounter = getMetricCounter(key);
+    }
+  }
+
+  /**
+   * Options to initialize a keyed resource pool.
+   */
+  public static final class Options {
+    /**
+     * The max number of resources of all keys.
+     */
+    private int mMaxCapacity = 4096;
+
+    /**
+     * The max number of resources of a key.
+     */
+    private int mMaxCapacityPerKey = 1024;
+
+    /**
+     * The number of resources of a key the gc keeps.
+     */
+    private int mMinCapacityPerKey = 0;
+
+    /**
+     * The initial delay.
+     */
+    private long mInitialDelayMs = 100;
+
+    /**
+     * The gc interval.
+     */
+    private long mGcIntervalMs = 120L * Constants.SECOND_MS;
+
+    /**
+     * The gc executor.
+     */
+    private ScheduledExecutorService mGcExecutor = DynamicResourcePool.GC_EXECUTOR;
+
+    /**
+     * @return the max number of resources of all keys
+     */
+    public int getMaxCapacity() {
+      return mMaxCapacity;
+    }
+
+    /**
+     * @return the max number of resources of a key
+     */
+    public int getMaxCapacityPerKey() {
+      return mMaxCapacityPerKey;
+    }
+
+    /**
+     * @return the number of resources of a key the gc keeps
+     */
+    public int getMinCapacityPerKey() {
+      return mMinCapacityPerKey;
+    }
+
+    /**
+     * @return the initial delay
+     */
+    public long getInitialDelayMs() {
+      return mInitialDelayMs;
+    }
+
+    /**
+     * @return the gc interval
+     */
+    public long getGcIntervalMs() {
+      return mGcIntervalMs;
+    }
+
+    /**
+     * @return the gc executor
+     */
+    public ScheduledExecutorService getGcExecutor() {
+      return mGcExecutor;
+    }
+
+    /**
+     * @param maxCapacity the max number of resources of all keys
+     * @return the updated object
+     */
+    public Options setMaxCapacity(int maxCapacity) {
+      Preconditions.checkArgument(maxCapacity >= 1);
+      mMaxCapacity = maxCapacity;
+      return this;
+    }
+
+    /**
+     * @param maxCapacityPerKey the max number of resources of a key
+     * @return the updated object
+     */
+    public Options setMaxCapacityPerKey(int maxCapacityPerKey) {
+      Preconditions.checkArgument(maxCapacityPerKey >= 1);
+      mMaxCapacityPerKey = maxCapacityPerKey;
+      return this;
+    }
+
+    /**
+     * @param minCapacityPerKey the number of resources of a key the gc keeps, a key keeping
+     *                          resources is never dropped
+     * @return the updated object
+     */
+    public Options setMinCapacityPerKey(int minCapacityPerKey) {
+      Preconditions.checkArgument(minCapacityPerKey >= 0);
+      mMinCapacityPerKey = minCapacityPerKey;
+      return this;
+    }
+
+    /**
+     * @param initialDelayMs the initial delay
+     * @return the updated object
+     */
+    public Options setInitialDelayMs(long initialDelayMs) {
+      Preconditions.checkArgument(initialDelayMs >= 0);
+      mInitialDelayMs = initialDelayMs;
+      return this;
+    }
+
+    /**
+     * @param gcIntervalMs the gc interval
+     * @return the updated object
+     */
+    public Options setGcIntervalMs(long gcIntervalMs) {
+      Preconditions.checkArgument(gcIntervalMs > 0);
+      mGcIntervalMs = gcIntervalMs;
+      return this;
+    }
+
+    /**
+     * @param gcExecutor the gc executor
+     * @return updated object
+     */
+    public Options setGcExecutor(ScheduledExecutorService gcExecutor) {
+      mGcExecutor = gcExecutor;
+      return this;
+    }
+
+    private Options() {
+    }
+
+    /**
+     * @return the default option
+     */
+    public static Options defaultOptions() {
+      return new Options();
+    }
+  }
+
+  private final ReentrantLock mLock = new ReentrantLock();
+  @GuardedBy("mLock")
+  private final Map<K, SubPool> mPools = new HashMap<>();
+  private final ConcurrentHashMap<T, ResourceInternal> mResources = new ConcurrentHashMap<>();
+  /**
+   * The idle resources of all keys, least recently released first, evicted in this order when
+   * the global capacity is exhausted.
+   */
+  @GuardedBy("mLock")
+  private final LinkedHashSet<ResourceInternal> mIdleResources = new LinkedHashSet<>();
+  /**
+   * The pools of the keys having waiting requests, in the order they started waiting.
+   */
+  @GuardedBy("mLock")
+  private final LinkedHashSet<SubPool> mWaitingPools = new LinkedHashSet<>();
+  private final int mMaxCapacity;
+  private final int mMaxCapacityPerKey;
+  private final int mMinCapacityPerKey;
+  /**
+   * The number of resources of all keys, including reserved slots.
+   */
+  @GuardedBy("mLock")
+  private int mNumResources;
+  private volatile boolean mClosed;
+  private final Counter mMetricCounter;
+  private final ScheduledFuture<?> mGcFuture;
+  protected Clock mClock = new SystemClock();
+
+  /**
+   * Creates a new keyed pool.
+   *
+   * @param options the options
+   */
+  public KeyedDynamicResourcePool(Options options) {
+    mMaxCapacity = options.getMaxCapacity();
+    mMaxCapacityPerKey = options.getMaxCapacityPerKey();
+    mMinCapacityPerKey = options.getMinCapacityPerKey();
+    mMetricCounter = Preconditions.checkNotNull(getMetricCounter(),
+        "cannot find resource count metric for %s", getClass().getName());
+    ScheduledExecutorService executor =
+        Preconditions.checkNotNull(options.getGcExecutor(), "executor");
+    mGcFuture = executor.scheduleAtFixedRate(this::gc, options.getInitialDelayMs(),
+        options.getGcIntervalMs(), TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Acquires a resource of the key, blocking until one is available.
+   *
+   * @param key the key
+   * @return the resource
+   */
+  public T acquire(K key) throws IOException {
+    try {
+      return acquire(key, 100  /* no timeout */, TimeUnit.DAYS);
+    } catch (TimeoutException e) {
+      // Never should timeout in acquire().
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Acquires a resource of the key, blocking until one is available or the timeout passes.
+   *
+   * @param key the key
+   * @param time the max time to wait
+   * @param unit the unit of the time
+   * @return the resource
+   * @throws TimeoutException if no resource was available in time
+   * @throws IOException if the pool is closed or a resource could not be created
+   */
+  public T acquire(K key, long time, TimeUnit unit) throws TimeoutException, IOException {
+    long endTimeMs = mClock.millis() + unit.toMillis(time);
+    while (true) {
+      SubPool pool;
+      ResourceInternal idle;
+      ResourceInternal evicted = null;
+      try (LockResource lockResource = new LockResource(mLock)) {
+        while (true) {
+          checkOpen();
+          pool = mPools.computeIfAbsent(key, SubPool::new);
+          idle = pollIdle(pool);
+          if (idle != null) {
+            break;
+          }
+          if (pool.mNumResources < mMaxCapacityPerKey) {
+            if (mNumResources < mMaxCapacity) {
+              mNumResources++;
+              pool.mNumResources++;
+              break;
+            }
+            evicted = evictIdle();
+            if (evicted != null) {
+              // The slot of the evicted resource is handed over.
+              pool.mNumResources++;
+              break;
+            }
+          }
+          await(pool, endTimeMs);
+        }
+      }
+      if (idle != null) {
+        if (isHealthy(idle.mResource)) {
+          return idle.mResource;
+        }
+        LOG.debug("Clearing unhealthy resource {}.", idle.mResource);
+        closeQuietly(idle.mResource);
+        try (LockResource lockResource = new LockResource(mLock)) {
+          remove(idle, true);
+        }
+        continue;
+      }
+      if (evicted != null) {
+        LOG.debug("Evicting resource {} of {} to make room for {}.", evicted.mResource,
+            evicted.getKey(), key);
+        // Closed before its slot is reused, so the capacity bounds the open resources.
+        closeQuietly(evicted.mResource);
+      }
+      return create(pool);
+    }
+  }
+
+  /**
+   * Waits for a resource of the key to be released or for room to create one, must be called
+   * with the lock.
+   *
+   * @param pool the pool of the key
+   * @param endTimeMs the end time to wait till
+   * @throws TimeoutException if it times out to wait for a resource
+   */
+  private void await(SubPool pool, long endTimeMs) throws TimeoutException, IOException {
+    if (pool.mNumWaiters++ == 0) {
+      mWaitingPools.add(pool);
+    }
+    try {
+      long currTimeMs = mClock.millis();
+      if (endTimeMs - currTimeMs <= 0 || !pool.mNotEmpty
+          .await(endTimeMs - currTimeMs, TimeUnit.MILLISECONDS)) {
+        throw new TimeoutException("Acquire resource of " + pool.mKey + " times out.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Thread interrupted while acquiring client from pool: " + this);
+    } finally {
+      if (--pool.mNumWaiters == 0) {
+        mWaitingPools.remove(pool);
+      }
+    }
+  }
+
+  /**
+   * Creates a resource of the key in a slot reserved for it.
+   *
+   * @param pool the pool of the key
+   * @return the resource
+   */
+  private T create(SubPool pool) throws IOException {
+    T resource;
+    try {
+      resource = createNewResource(pool.mKey);
+    } catch (IOException | RuntimeException e) {
+      try (LockResource lockResource = new LockResource(mLock)) {
+        pool.mNumResources--;
+        mNumResources--;
+        signalWaiter(pool);
+      }
+      throw e;
+    }
+    ResourceInternal resourceInternal = new ResourceInternal(pool, resource);
+    mResources.put(resource, resourceInternal);
+    mMetricCounter.inc();
+    if (pool.mMetricCounter != null) {
+      pool.mMetricCounter.inc();
+    }
+    if (mClosed) {
+      // Closed during the creation, the resource is not handed out.
+      closeQuietly(resource);
+      try (LockResource lockResource = new LockResource(mLock)) {
+        remove(resourceInternal, true);
+      }
+      throw new IOException("Pool is closed: " + this);
+    }
+    return resource;
+  }
+
+  /**
+   * Releases a resource acquired from this pool. Once the pool is closed, the resource is closed
+   * instead.
+   *
+   * @param resource the resource
+   */
+  public void release(T resource) {
+    ResourceInternal resourceInternal = mResources.get(resource);
+    if (resourceInternal == null) {
+      throw new IllegalArgumentException(
+          "Resource " + resource.toString() + " was not acquired from this resource pool.");
+    }
+    resourceInternal.mLastAccessTimeMs = mClock.millis();
+    boolean closed;
+    try (LockResource lockResource = new LockResource(mLock)) {
+      // Checked under the lock, close() sets the flag before taking the idle resources.
+      closed = mClosed;
+      if (!closed) {
+        resourceInternal.mPool.mAvailableResources.addFirst(resourceInternal);
+        mIdleResources.add(resourceInternal);
+        signalWaiter(resourceInternal.mPool);
+      }
+    }
+    if (closed) {
+      closeQuietly(resource);
+      try (LockResource lockResource = new LockResource(mLock)) {
+        remove(resourceInternal, true);
+      }
+    }
+  }
+
+  /**
+   * @return the number of resources of all keys
+   */
+  public int size() {
+    return mResources.size();
+  }
+
+  /**
+   * @param key the key
+   * @return the number of resources of the key
+   */
+  public int size(K key) {
+    try (LockResource lockResource = new LockResource(mLock)) {
+      SubPool pool = mPools.get(key);
+      return pool == null ? 0 : pool.mNumResources;
+    }
+  }
+
+  /**
+   * @param key the key
+   * @return the number of idle resources of the key
+   */
+  public int availableSize(K key) {
+    try (LockResource lockResource = new LockResource(mLock)) {
+      SubPool pool = mPools.get(key);
+      return pool == null ? 0 : pool.mAvailableResources.size();
+    }
+  }
+
+  /**
+   * @return the number of keys having resources
+   */
+  public int keyCount() {
+    try (LockResource lockResource = new LockResource(mLock)) {
+      return mPools.size();
+    }
+  }
+
+  /**
+   * Closes the idle resources and fails the waiting requests. Resources released or created
+   * afterwards are closed, and acquisitions fail.
+   */
+  @Override
+  public void close() throws IOException {
+    mClosed = true;
+    mGcFuture.cancel(true);
+    List<T> available = new ArrayList<>();
+    try (LockResource lockResource = new LockResource(mLock)) {
+      for (ResourceInternal resourceInternal : mIdleResources) {
+        resourceInternal.mPool.mAvailableResources.clear();
+        remove(resourceInternal, true);
+        available.add(resourceInternal.mResource);
+      }
+      mIdleResources.clear();
+      for (SubPool pool : mWaitingPools) {
+        pool.mNotEmpty.signalAll();
+      }
+    }
+    if (!mResources.isEmpty()) {
+      LOG.warn("{} resources are not released when closing the resource pool.",
+          mResources.size());
+    }
+    for (T resource : available) {
+      closeQuietly(resource);
+    }
+  }
+
+  /**
+   * @throws IOException if the pool is closed
+   */
+  private void checkOpen() throws IOException {
+    if (mClosed) {
+      throw new IOException("Pool is closed: " + this);
+    }
+  }
+
+  /**
+   * Takes the most recently released idle resource of the key, must be called with the lock.
+   *
+   * @param pool the pool of the key
+   * @return the resource, null if the key has no idle resource
+   */
+  @Nullable
+  private ResourceInternal pollIdle(SubPool pool) {
+    ResourceInternal resourceInternal = pool.mAvailableResources.pollFirst();
+    if (resourceInternal != null) {
+      mIdleResources.remove(resourceInternal);
+    }
+    return resourceInternal;
+  }
+
+  /**
+   * Takes the least recently used idle resource out of the pool, keeping its slot in the global
+   * capacity for the caller, must be called with the lock. The caller only evicts once its own
+   * key has no idle resource left, so the resource belongs to another key.
+   *
+   * @return the resource to close, null if no resource is idle
+   */
+  @Nullable
+  private ResourceInternal evictIdle() {
+    Iterator<ResourceInternal> iterator = mIdleResources.iterator();
+    if (!iterator.hasNext()) {
+      return null;
+    }
+    ResourceInternal victim = iterator.next();
+    iterator.remove();
+    // Released the longest ago, so the last of its key.
+    victim.mPool.mAvailableResources.removeLastOccurrence(victim);
+    remove(victim, false);
+    return victim;
+  }
+
+  /**
+   * Removes a resource taken from the idle resources from the pool, must be called with the
+   * lock.
+   *
+   * @param resourceInternal the resource
+   * @param freeSlot whether to free its slot in the global capacity, false to keep it for a
+   *                 new resource
+   */
+  private void remove(ResourceInternal resourceInternal, boolean freeSlot) {
+    if (mResources.remove(resourceInternal.mResource) != null) {
+      SubPool pool = resourceInternal.mPool;
+      pool.mNumResources--;
+      if (freeSlot) {
+        mNumResources--;
+      }
+      mMetricCounter.dec();
+      if (pool.mMetricCounter != null) {
+        pool.mMetricCounter.dec();
+      }
+      if (freeSlot) {
+        signalWaiter(pool);
+      }
+    }
+  }
+
+  /**
+   * Wakes up one request which can use a resource of the key or room freed by it, must be called
+   * with the lock: a request of the key if there is one, otherwise the first request of another
+   * key which only waits for room in the global capacity.
+   *
+   * @param pool the pool of the key
+   */
+  private void signalWaiter(SubPool pool) {
+    if (pool.mNumWaiters > 0) {
+      pool.mNotEmpty.signal();
+      return;
+    }
+    for (SubPool waiting : mWaitingPools) {
+      if (waiting.mNumResources < mMaxCapacityPerKey) {
+        waiting.mNotEmpty.signal();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Closes the idle resources of all keys the subclass wants collected, down to the min
+   * capacity of each key, and drops the keys left without resources.
+   */
+  private void gc() {
+    List<ResourceInternal> resourcesToGc = new ArrayList<>();
+    try (LockResource lockResource = new LockResource(mLock)) {
+      for (SubPool pool : mPools.values()) {
+        int numResources = pool.mNumResources;
+        // Oldest first.
+        Iterator<ResourceInternal> iterator = pool.mAvailableResources.descendingIterator();
+        while (iterator.hasNext() && numResources > mMinCapacityPerKey) {
+          ResourceInternal next = iterator.next();
+          if (shouldGc(next)) {
+            iterator.remove();
+            mIdleResources.remove(next);
+            resourcesToGc.add(next);
+            numResources--;
+          }
+        }
+      }
+    }
+    for (ResourceInternal resourceInternal : resourcesToGc) {
+      LOG.debug("Resource {} is garbage collected.", resourceInternal.mResource);
+      // Closed before its slot is freed, so the capacity bounds the open resources.
+      closeQuietly(resourceInternal.mResource);
+    }
+    List<K> removedKeys = new ArrayList<>();
+    try (LockResource lockResource = new LockResource(mLock)) {
+      for (ResourceInternal resourceInternal : resourcesToGc) {
+        remove(resourceInternal, true);
+      }
+      Iterator<SubPool> pools = mPools.values().iterator();
+      while (pools.hasNext()) {
+        SubPool pool = pools.next();
+        if (pool.mNumResources == 0 && pool.mNumWaiters == 0) {
+          pools.remove();
+          removedKeys.add(pool.mKey);
+        }
+      }
+    }
+    for (K key : removedKeys) {
+      onKeyRemoved(key);
+    }
+  }
+
+  private void closeQuietly(T resource) {
+    try {
+      closeResource(resource);
+    } catch (IOException e) {
+      LOG.warn("Failed to close resource {}.", resource, e);
+    }
+  }
+
+  /**
+   * @return the counter of the resources of all keys
+   */
+  protected abstract Counter getMetricCounter();
+
+  /**
+   * @param key the key
+   * @return the counter of the resources of the key, null to not count them
+   */
+  @Nullable
+  protected Counter getMetricCounter(K key) {
+    return null;
+  }
+
+  /**
+   * Called once the gc dropped a key left without resources, e.g. to remove its metrics.
+   *
+   * @param key the key
+   */
+  protected void onKeyRemoved(K key) {
+  }
+
+  protected abstract boolean shouldGc(ResourceInternal resourceInternal);
+
+  protected abstract void closeResource(T resource) throws IOException;
+
+  protected abstract T createNewResource(K key) throws IOException;
+
+  protected abstract boolean isHealthy(T resource);
+}
@@ -2,6 +2,8 @@ package com.bollu.goosefs.resource.resourcepool;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -11,6 +13,26 @@ public interface Pool<T> extends Closeable {
 
   T acquire(long time, TimeUnit unit) throws TimeoutException, IOException;
 
+  /**
+   * Acquires a resource without blocking the calling thread. The future is completed right away
+   * if a resource is available or can be created, otherwise once the next resource is released.
+   * Cancelling the future gives up the request.
+   *
+   * The default implementation blocks a thread of the common pool in {@link #acquire()}, pools
+   * should override it to queue the request instead.
+   *
+   * @return a future completed with the resource
+   */
+  default CompletableFuture<T> acquireAsync() {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return acquire();
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    });
+  }
+
   default PooledResource<T> acquireCloseable() throws IOException {
     return new PooledResource<>(acquire(), this);
   }
@@ -0,0 +1,16 @@
+package com.bollu.goosefs.resource.resourcepool;
+
+/**
+ * Thrown when a request for a resource is rejected right away because the pool is at capacity
+ * and the max number of requests are already waiting.
+ */
+public class PoolExhaustedException extends RuntimeException {
+  private static final long serialVersionUID = 5270912836455209231L;
+
+  /**
+   * @param message the detail message
+   */
+  public PoolExhaustedException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,110 @@
+package com.bollu.goosefs.resource.resourcepool;
+
+import com.bollu.goosefs.prometheus.metrics.Metric;
+import com.bollu.goosefs.prometheus.metrics.MetricKey;
+import com.bollu.goosefs.prometheus.metrics.MetricsSystem;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in instrumentation of a resource pool: acquisition wait time, timeouts and rejections,
+ * resources created, destroyed and found unhealthy, and gauges of the idle and active resources
+ * and of the waiting requests.
+ *
+ * The metrics are registered in {@link MetricsSystem#METRIC_REGISTRY} under the pool
+ * {@link MetricKey}s, tagged with the given name.
+ */
+@ThreadSafe
+public final class PoolMetrics {
+  public static final String TAG_POOL = "Pool";
+
+  private final String mName;
+  private final Timer mAcquireWaitTime;
+  private final Counter mAcquireTimeouts;
+  private final Counter mAcquireRejections;
+  private final Counter mCreated;
+  private final Counter mDestroyed;
+  private final Counter mUnhealthy;
+
+  /**
+   * @param name the name tagged on the metrics, e.g. the address the pooled clients connect to
+   */
+  public PoolMetrics(String name) {
+    mName = Preconditions.checkNotNull(name, "name");
+    mAcquireWaitTime =
+        MetricsSystem.histogramTimer(getMetricName(MetricKey.POOL_ACQUIRE_WAIT_TIME));
+    mAcquireTimeouts = MetricsSystem.counter(getMetricName(MetricKey.POOL_ACQUIRE_TIMEOUTS));
+    mAcquireRejections =
+        MetricsSystem.counter(getMetricName(MetricKey.POOL_ACQUIRE_REJECTIONS));
+    mCreated = MetricsSystem.counter(getMetricName(MetricKey.POOL_RESOURCES_CREATED));
+    mDestroyed = MetricsSystem.counter(getMetricName(MetricKey.POOL_RESOURCES_DESTROYED));
+    mUnhealthy = MetricsSystem.counter(getMetricName(MetricKey.POOL_UNHEALTHY_RESOURCES));
+  }
+
+  /**
+   * @return the name tagged on the metrics
+   */
+  public String getName() {
+    return mName;
+  }
+
+  /**
+   * @param key the metric key
+   * @return the metric name of the key tagged with the name of this instance
+   */
+  public String getMetricName(MetricKey key) {
+    return Metric.getMetricNameWithTags(key.getName(), TAG_POOL, mName);
+  }
+
+  /**
+   * Registers the gauges of the pool, which must be removed with {@link #removeGauges()} when
+   * the pool is closed.
+   *
+   * @param idle the number of idle resources
+   * @param active the number of resources in use
+   * @param waiters the number of requests waiting for a resource
+   */
+  void registerGauges(Gauge<Integer> idle, Gauge<Integer> active, Gauge<Integer> waiters) {
+    MetricsSystem.registerGaugeIfAbsent(getMetricName(MetricKey.POOL_IDLE_RESOURCES), idle);
+    MetricsSystem.registerGaugeIfAbsent(getMetricName(MetricKey.POOL_ACTIVE_RESOURCES), active);
+    MetricsSystem.registerGaugeIfAbsent(getMetricName(MetricKey.POOL_WAITERS), waiters);
+  }
+
+  /**
+   * Removes the gauges, which reference the pool and would keep it alive.
+   */
+  void removeGauges() {
+    MetricsSystem.METRIC_REGISTRY.remove(getMetricName(MetricKey.POOL_IDLE_RESOURCES));
+    MetricsSystem.METRIC_REGISTRY.remove(getMetricName(MetricKey.POOL_ACTIVE_RESOURCES));
+    MetricsSystem.METRIC_REGISTRY.remove(getMetricName(MetricKey.POOL_WAITERS));
+  }
+
+  void recordAcquire(long waitNanos) {
+    mAcquireWaitTime.update(waitNanos, TimeUnit.NANOSECONDS);
+  }
+
+  void recordTimeout() {
+    mAcquireTimeouts.inc();
+  }
+
+  void recordRejection() {
+    mAcquireRejections.inc();
+  }
+
+  void recordCreated() {
+    mCreated.inc();
+  }
+
+  void recordDestroyed() {
+    mDestroyed.inc();
+  }
+
+  void recordUnhealthy() {
+    mUnhealthy.inc();
+  }
+}
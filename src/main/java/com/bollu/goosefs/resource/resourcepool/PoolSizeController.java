@@ -0,0 +1,140 @@
+package com.bollu.goosefs.resource.resourcepool;
+
+import com.google.common.base.Preconditions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Adjusts the effective min and max capacity of a {@link DynamicResourcePool} within the bounds
+ * of its options, additive increase / multiplicative decrease style:
+ * <ul>
+ *   <li>when requests waited longer than the target wait, timed out or are still waiting, the
+ *   max capacity grows by the number of waiting requests, at least one;</li>
+ *   <li>otherwise when the resources in use are below the target utilization of the max
+ *   capacity, the max capacity is halved, but not below the size at which the resources in use
+ *   reach the target utilization;</li>
+ *   <li>when creating a resource takes longer than the target wait, the min capacity is raised
+ *   to the resources in use, so the gc keeps them instead of paying the creation again.</li>
+ * </ul>
+ * The pool records the samples, {@link #adjust(int, int)} is called periodically.
+ */
+@ThreadSafe
+final class PoolSizeController {
+  private static final Logger LOG = LoggerFactory.getLogger(PoolSizeController.class);
+  private static final double DECREASE_FACTOR = 0.5;
+  /** Weight of the last interval in the average creation time. */
+  private static final double CREATION_TIME_WEIGHT = 0.2;
+
+  private final int mMinCapacity;
+  private final int mMaxCapacity;
+  private final double mTargetUtilization;
+  private final long mTargetWaitNanos;
+
+  private volatile int mEffectiveMinCapacity;
+  private volatile int mEffectiveMaxCapacity;
+
+  private final AtomicLong mMaxWaitNanos = new AtomicLong();
+  private final LongAdder mTimeouts = new LongAdder();
+  private final LongAdder mCreations = new LongAdder();
+  private final LongAdder mCreationNanos = new LongAdder();
+  /** Only accessed by {@link #adjust(int, int)}. */
+  private double mAvgCreationNanos;
+
+  /**
+   * @param minCapacity the lowest min capacity
+   * @param maxCapacity the highest max capacity
+   * @param targetUtilization the target fraction of the max capacity in use
+   * @param targetWaitMs the longest acceptable wait for a resource
+   */
+  PoolSizeController(int minCapacity, int maxCapacity, double targetUtilization,
+      long targetWaitMs) {
+    Preconditions.checkArgument(minCapacity <= maxCapacity,
+        "minCapacity %s must not exceed maxCapacity %s", minCapacity, maxCapacity);
+    mMinCapacity = minCapacity;
+    mMaxCapacity = maxCapacity;
+    mTargetUtilization = targetUtilization;
+    mTargetWaitNanos = TimeUnit.MILLISECONDS.toNanos(targetWaitMs);
+    mEffectiveMinCapacity = minCapacity;
+    mEffectiveMaxCapacity = maxCapacity;
+  }
+
+  /**
+   * @return the effective min capacity
+   */
+  int getMinCapacity() {
+    return mEffectiveMinCapacity;
+  }
+
+  /**
+   * @return the effective max capacity
+   */
+  int getMaxCapacity() {
+    return mEffectiveMaxCapacity;
+  }
+
+  /**
+   * Records a request which had to wait for a resource.
+   *
+   * @param waitNanos how long it waited
+   */
+  void recordWait(long waitNanos) {
+    mMaxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+  }
+
+  void recordTimeout() {
+    mTimeouts.increment();
+  }
+
+  /**
+   * @param creationNanos how long creating a resource took
+   */
+  void recordCreation(long creationNanos) {
+    mCreations.increment();
+    mCreationNanos.add(creationNanos);
+  }
+
+  /**
+   * Adjusts the effective capacities to the samples recorded since the last call.
+   *
+   * @param inUse the number of resources in use
+   * @param waiters the number of requests waiting for a resource
+   * @return how much the max capacity grew, 0 if it did not
+   */
+  int adjust(int inUse, int waiters) {
+    long maxWaitNanos = mMaxWaitNanos.getAndSet(0);
+    long timeouts = mTimeouts.sumThenReset();
+    long creations = mCreations.sumThenReset();
+    long creationNanos = mCreationNanos.sumThenReset();
+    if (creations > 0) {
+      double lastAvg = (double) creationNanos / creations;
+      mAvgCreationNanos = mAvgCreationNanos == 0 ? lastAvg
+          : CREATION_TIME_WEIGHT * lastAvg + (1 - CREATION_TIME_WEIGHT) * mAvgCreationNanos;
+    }
+
+    int oldMax = mEffectiveMaxCapacity;
+    int max = oldMax;
+    if (timeouts > 0 || waiters > 0 || maxWaitNanos > mTargetWaitNanos) {
+      max = (int) Math.min(mMaxCapacity, (long) max + Math.max(1, waiters));
+    } else if (inUse < max * mTargetUtilization) {
+      int atTarget = (int) Math.ceil(inUse / mTargetUtilization);
+      max = Math.max(Math.max(mMinCapacity, 1), Math.max(atTarget, (int) (max * DECREASE_FACTOR)));
+    }
+    int min = mMinCapacity;
+    if (mAvgCreationNanos > mTargetWaitNanos) {
+      min = Math.max(min, Math.min(inUse, max));
+    }
+    if (max != oldMax || min != mEffectiveMinCapacity) {
+      LOG.debug("Resizing pool to [{}, {}] from [{}, {}]: inUse={}, waiters={}, maxWaitNs={}, "
+          + "timeouts={}, avgCreationNs={}", min, max, mEffectiveMinCapacity, oldMax, inUse,
+          waiters, maxWaitNanos, timeouts, (long) mAvgCreationNanos);
+    }
+    mEffectiveMaxCapacity = max;
+    mEffectiveMinCapacity = min;
+    return Math.max(max - oldMax, 0);
+  }
+}
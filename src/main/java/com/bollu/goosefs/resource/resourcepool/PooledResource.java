@@ -5,6 +5,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 这个类是为了防止池里的资源泄露
@@ -17,6 +18,12 @@ public class PooledResource<T> extends CloseableResource<T> {
 
   protected final String mPoolDescription;
 
+  /**
+   * Set once the handle released its resource, so closing it again, from any thread, does
+   * nothing.
+   */
+  private final AtomicBoolean mClosed = new AtomicBoolean();
+
   public PooledResource(T resource, Pool<T> pool) {
     super(resource);
     mPool = new WeakReference<>(pool);
@@ -24,8 +31,17 @@ public class PooledResource<T> extends CloseableResource<T> {
         pool.getClass().getName(), Integer.toHexString(pool.hashCode())).intern();
   }
 
+  private PooledResource(T resource, Factory<T> factory) {
+    super(resource);
+    mPool = factory.mPool;
+    mPoolDescription = factory.getPoolDescription();
+  }
+
   @Override
   public void closeResource() {
+    if (!mClosed.compareAndSet(false, true)) {
+      return;
+    }
     Pool<T> pool = mPool.get();
     if (pool != null) {
       pool.release(get());
@@ -46,4 +62,45 @@ public class PooledResource<T> extends CloseableResource<T> {
       }
     }
   }
+
+  /**
+   * Hands out {@link PooledResource}s of one pool. The handles share one weak reference to the
+   * pool and one description, instead of allocating and formatting them per acquisition.
+   *
+   * The handles themselves are not reused: a caller may keep its handle and close it late, or
+   * from another thread, and a reused handle would then release the resource of its next user.
+   *
+   * @param <T> the type of resource the pool manages
+   */
+  public static final class Factory<T> {
+    private final WeakReference<Pool<T>> mPool;
+    /** Computed on first use, the pool may not be constructed yet when the factory is. */
+    private volatile String mPoolDescription;
+
+    /**
+     * @param pool the pool the resources are released to
+     */
+    public Factory(Pool<T> pool) {
+      mPool = new WeakReference<>(pool);
+    }
+
+    /**
+     * @param resource a resource acquired from the pool
+     * @return a handle releasing the resource to the pool when closed
+     */
+    public PooledResource<T> get(T resource) {
+      return new PooledResource<>(resource, this);
+    }
+
+    private String getPoolDescription() {
+      String description = mPoolDescription;
+      if (description == null) {
+        Pool<T> pool = mPool.get();
+        description = pool == null ? "<collected pool>" : String.format("%s@%s",
+            pool.getClass().getName(), Integer.toHexString(pool.hashCode()));
+        mPoolDescription = description;
+      }
+      return description;
+    }
+  }
 }
@@ -1,16 +1,16 @@
 package com.bollu.goosefs.resource.resourcepool;
 
-import com.bollu.goosefs.resource.lock.LockResource;
 import com.google.common.base.Preconditions;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Class representing a pool of resources to be temporarily used and returned. Inheriting classes
@@ -23,22 +23,75 @@ import java.util.concurrent.locks.ReentrantLock;
 @ThreadSafe
 public abstract class ResourcePool<T> implements Pool<T> {
   private static final long WAIT_INDEFINITELY = -1;
-  private final ReentrantLock mTakeLock;
-  private final Condition mNotEmpty;
   protected final int mMaxCapacity;
   protected final ConcurrentLinkedQueue<T> mResources;
   protected final AtomicInteger mCurrentCapacity;
+  /**
+   * Requests waiting for a resource, blocking and asynchronous alike, oldest first. Releases
+   * hand their resource directly to the oldest request.
+   */
+  private final ConcurrentLinkedQueue<CompletableFuture<T>> mWaiters;
+  /**
+   * The number of requests in {@link #mWaiters}, cancelled ones included until they are
+   * dropped from the queue.
+   */
+  private final AtomicInteger mNumWaiters = new AtomicInteger();
+  private final int mMaxWaiters;
+  @Nullable
+  private final PoolMetrics mMetrics;
+  private final PooledResource.Factory<T> mHandles = new PooledResource.Factory<>(this);
 
   public ResourcePool(int maxCapacity) {
     this(maxCapacity, new ConcurrentLinkedQueue<T>());
   }
 
+  /**
+   * @param maxCapacity the max capacity
+   * @param metricsName the name tagged on the {@link PoolMetrics} of the pool, null to not
+   *                    record metrics; subclasses recording metrics call {@link #closeMetrics()}
+   *                    when closed
+   */
+  public ResourcePool(int maxCapacity, @Nullable String metricsName) {
+    this(maxCapacity, new ConcurrentLinkedQueue<T>(), metricsName);
+  }
+
+  /**
+   * @param maxCapacity the max capacity
+   * @param metricsName the name tagged on the {@link PoolMetrics} of the pool, null to not
+   *                    record metrics
+   * @param maxWaiters the max number of requests waiting for a resource, further requests are
+   *                   rejected with a {@link PoolExhaustedException}
+   */
+  public ResourcePool(int maxCapacity, @Nullable String metricsName, int maxWaiters) {
+    this(maxCapacity, new ConcurrentLinkedQueue<T>(), metricsName, maxWaiters);
+  }
+
   protected ResourcePool(int maxCapacity, ConcurrentLinkedQueue<T> resources) {
-    mTakeLock = new ReentrantLock();
-    mNotEmpty = mTakeLock.newCondition();
+    this(maxCapacity, resources, null);
+  }
+
+  protected ResourcePool(int maxCapacity, ConcurrentLinkedQueue<T> resources,
+      @Nullable String metricsName) {
+    this(maxCapacity, resources, metricsName, Integer.MAX_VALUE);
+  }
+
+  protected ResourcePool(int maxCapacity, ConcurrentLinkedQueue<T> resources,
+      @Nullable String metricsName, int maxWaiters) {
+    Preconditions.checkArgument(maxWaiters >= 0, "maxWaiters must not be negative: %s",
+        maxWaiters);
     mMaxCapacity = maxCapacity;
     mCurrentCapacity = new AtomicInteger();
     mResources = resources;
+    mWaiters = new ConcurrentLinkedQueue<>();
+    mMaxWaiters = maxWaiters;
+    if (metricsName != null) {
+      mMetrics = new PoolMetrics(metricsName);
+      mMetrics.registerGauges(mResources::size,
+          () -> Math.max(mCurrentCapacity.get() - mResources.size(), 0),
+          mNumWaiters::get);
+    } else {
+      mMetrics = null;
+    }
   }
 
   @Override
@@ -46,69 +99,209 @@ public abstract class ResourcePool<T> implements Pool<T> {
     return acquire(WAIT_INDEFINITELY, null);
   }
 
+  /**
+   * Acquires a resource, waiting behind the requests queued before this one if none is
+   * available.
+   *
+   * @param time the max time to wait, a non positive value to wait indefinitely
+   * @param unit the unit of the time, null if the time is not positive
+   * @return the resource, null if the time passed
+   * @throws PoolExhaustedException if the max number of requests are already waiting
+   */
   @Override
   @Nullable
   public T acquire(long time, TimeUnit unit) {
-    Preconditions.checkState((time <= 0) == (unit == null));
-    long endTimeMs = 0;
-    if (time > 0) {
-      endTimeMs = System.currentTimeMillis() + unit.toMillis(time);
+    if (mMetrics == null) {
+      return acquireInternal(time, unit);
+    }
+    long startNanos = System.nanoTime();
+    T resource = acquireInternal(time, unit);
+    if (resource == null) {
+      mMetrics.recordTimeout();
+    } else {
+      mMetrics.recordAcquire(System.nanoTime() - startNanos);
     }
+    return resource;
+  }
+
+  @Nullable
+  private T acquireInternal(long time, TimeUnit unit) {
+    Preconditions.checkState((time <= 0) == (unit == null));
 
     T resource = mResources.poll();
     if (resource != null) {
       return resource;
     }
 
-    if (mCurrentCapacity.get() < mMaxCapacity) {
+    if (mCurrentCapacity.getAndIncrement() < mMaxCapacity) {
       // If the resource pool is empty but capacity is not yet full, create a new resource.
-      T newResource = createNewResource();
-      mCurrentCapacity.incrementAndGet();
-      return newResource;
+      try {
+        return create();
+      } catch (RuntimeException e) {
+        mCurrentCapacity.decrementAndGet();
+        throw e;
+      }
     }
 
+    // The pool is full, give back the slot taken above.
     mCurrentCapacity.decrementAndGet();
+    CompletableFuture<T> waiter = enqueue();
     try {
-      //这把锁是为了公平竞争，避免前面的线程饿死
-      mTakeLock.lockInterruptibly();
-      try {
-        while (true) {
-          resource = mResources.poll();
-          if (resource != null) {
-            return resource;
-          }
-          if (time > 0) {
-            long currTimeMs = System.currentTimeMillis();
-            // one should use t1-t0<0, not t1<t0, because of the possibility of numerical overflow.
-            // For further detail see: https://docs.oracle.com/javase/8/docs/api/java/lang/System.html
-            if (endTimeMs - currTimeMs <= 0) {
-              return null;
-            }
-            //mNotEmpty会被唤醒
-            if (!mNotEmpty.await(endTimeMs - currTimeMs, TimeUnit.MILLISECONDS)) {
-              return null;
-            }
-          } else {
-            mNotEmpty.await();
-          }
-        }
-      } finally {
-        mTakeLock.unlock();
-      }
+      return time > 0 ? waiter.get(time, unit) : waiter.get();
+    } catch (TimeoutException e) {
+      return abandon(waiter);
     } catch (InterruptedException e) {
+      resource = abandon(waiter);
+      if (resource != null) {
+        release(resource);
+      }
       Thread.currentThread().interrupt();
       throw new RuntimeException(e);
+    } catch (ExecutionException e) {
+      // Waiters are only ever completed with a resource.
+      throw new IllegalStateException(e.getCause());
     }
   }
 
   @Override
-  public void release(T resource) {
+  public PooledResource<T> acquireCloseable() {
+    return mHandles.get(acquire());
+  }
+
+  @Override
+  public PooledResource<T> acquireCloseable(long time, TimeUnit unit) {
+    return mHandles.get(acquire(time, unit));
+  }
+
+  @Override
+  public CompletableFuture<T> acquireAsync() {
+    T resource = mResources.poll();
     if (resource != null) {
-      mResources.add(resource);
-      try (LockResource r = new LockResource(mTakeLock)) {
-        mNotEmpty.signal();
+      return CompletableFuture.completedFuture(resource);
+    }
+    if (mCurrentCapacity.getAndIncrement() < mMaxCapacity) {
+      try {
+        return CompletableFuture.completedFuture(create());
+      } catch (RuntimeException e) {
+        mCurrentCapacity.decrementAndGet();
+        CompletableFuture<T> failed = new CompletableFuture<>();
+        failed.completeExceptionally(e);
+        return failed;
+      }
+    }
+    mCurrentCapacity.decrementAndGet();
+    CompletableFuture<T> future;
+    try {
+      future = enqueue();
+    } catch (PoolExhaustedException e) {
+      CompletableFuture<T> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+    if (mMetrics != null) {
+      long startNanos = System.nanoTime();
+      future.whenComplete((acquired, e) -> {
+        if (e == null) {
+          mMetrics.recordAcquire(System.nanoTime() - startNanos);
+        }
+      });
+    }
+    return future;
+  }
+
+  /**
+   * Hands the resource directly to the oldest queued request, makes it idle only if no request
+   * is waiting.
+   *
+   * @param resource the resource
+   */
+  @Override
+  public void release(T resource) {
+    if (resource == null) {
+      return;
+    }
+    if (!mWaiters.isEmpty() && completeWaiter(resource)) {
+      return;
+    }
+    mResources.add(resource);
+    // A request queued after the check above may have missed the resource.
+    if (!mWaiters.isEmpty()) {
+      drainWaiters();
+    }
+  }
+
+  /**
+   * Queues a request for the next released resource.
+   *
+   * @return the future completed with the resource
+   * @throws PoolExhaustedException if the max number of requests are already waiting
+   */
+  private CompletableFuture<T> enqueue() {
+    while (true) {
+      int numWaiters = mNumWaiters.get();
+      if (numWaiters >= mMaxWaiters) {
+        if (mMetrics != null) {
+          mMetrics.recordRejection();
+        }
+        throw new PoolExhaustedException(String.format(
+            "%d requests are already waiting for a resource of %s", numWaiters, this));
+      }
+      if (mNumWaiters.compareAndSet(numWaiters, numWaiters + 1)) {
+        break;
       }
     }
+    CompletableFuture<T> waiter = new CompletableFuture<>();
+    mWaiters.add(waiter);
+    // A resource may have been released before the request was queued.
+    drainWaiters();
+    return waiter;
+  }
+
+  /**
+   * Gives up a queued request.
+   *
+   * @param waiter the request
+   * @return the resource handed to the request before it could be given up, null if none was
+   */
+  @Nullable
+  private T abandon(CompletableFuture<T> waiter) {
+    if (waiter.cancel(false)) {
+      if (mWaiters.remove(waiter)) {
+        mNumWaiters.decrementAndGet();
+      }
+      return null;
+    }
+    return waiter.join();
+  }
+
+  /**
+   * Hands the idle resources to the queued requests, oldest first. Both releases and new
+   * requests publish first and drain second, so no request is left waiting while a resource
+   * is idle.
+   */
+  private void drainWaiters() {
+    while (!mWaiters.isEmpty()) {
+      T resource = mResources.poll();
+      if (resource == null) {
+        return;
+      }
+      if (!completeWaiter(resource)) {
+        // Every queued request was cancelled.
+        mResources.add(resource);
+        return;
+      }
+    }
+  }
+
+  private boolean completeWaiter(T resource) {
+    CompletableFuture<T> waiter;
+    while ((waiter = mWaiters.poll()) != null) {
+      mNumWaiters.decrementAndGet();
+      if (waiter.complete(resource)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   @Override
@@ -116,6 +309,23 @@ public abstract class ResourcePool<T> implements Pool<T> {
     return mCurrentCapacity.get();
   }
 
+  private T create() {
+    T resource = createNewResource();
+    if (mMetrics != null) {
+      mMetrics.recordCreated();
+    }
+    return resource;
+  }
+
+  /**
+   * Removes the gauges of the pool, to be called by subclasses recording metrics when closed.
+   */
+  protected void closeMetrics() {
+    if (mMetrics != null) {
+      mMetrics.removeGauges();
+    }
+  }
+
   public abstract void close() throws IOException;
 
   public abstract T createNewResource();